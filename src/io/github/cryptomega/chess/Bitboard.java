@@ -0,0 +1,166 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess;
+
+/**
+ * Static bitboard helpers and attack tables used by Game.
+ * A bitboard is a long with one bit per square. Squares are numbered
+ * using the internal coordinate system of Game:
+ *      square = 8*inRank + inFile   (a1 = 0, b1 = 1, ..., h8 = 63)
+ */
+final class Bitboard
+{
+    static final int NUM_OF_SQUARES = 64;
+
+    // squares of the a-file and of the first rank, shift to get the others
+    static final long FILE_A = 0x0101010101010101L;
+    static final long RANK_1 = 0xFFL;
+
+    // ray directions
+    static final int NO_DIRECTION = -1;
+    static final int NORTH      = 0;
+    static final int NORTH_EAST = 1;
+    static final int EAST       = 2;
+    static final int SOUTH_EAST = 3;
+    static final int SOUTH      = 4;
+    static final int SOUTH_WEST = 5;
+    static final int WEST       = 6;
+    static final int NORTH_WEST = 7;
+    static final int NUM_OF_DIRECTIONS = 8;
+
+    // change in square index for one step in each direction
+    static final int[] DIRECTION_SHIFTS = { 8, 9, 1, -7, -8, -9, -1, 7 };
+
+    // squares attacked by a knight or a king standing on a square
+    static final long[] KNIGHT_ATTACKS = new long[NUM_OF_SQUARES];
+    static final long[] KING_ATTACKS = new long[NUM_OF_SQUARES];
+
+    // squares attacked by a pawn of a color standing on a square. [color][square]
+    static final long[][] PAWN_ATTACKS = new long[2][NUM_OF_SQUARES];
+
+    // squares attacked by sliding pieces on an empty board
+    static final long[] BISHOP_ATTACKS = new long[NUM_OF_SQUARES];
+    static final long[] ROOK_ATTACKS = new long[NUM_OF_SQUARES];
+    static final long[] QUEEN_ATTACKS = new long[NUM_OF_SQUARES];
+
+    // squares from a square to the edge of the board. [square][direction]
+    static final long[][] RAY = new long[NUM_OF_SQUARES][NUM_OF_DIRECTIONS];
+
+    // direction from one square to another, or NO_DIRECTION if they
+    // are not on the same rank, file or diagonal. [from][to]
+    static final int[][] DIRECTION = new int[NUM_OF_SQUARES][NUM_OF_SQUARES];
+
+    // squares strictly between two squares on the same rank, file or
+    // diagonal, 0 if they are not lined up. [from][to]
+    static final long[][] SQUARES_BETWEEN = new long[NUM_OF_SQUARES][NUM_OF_SQUARES];
+
+    private static final int[][] KNIGHT_STEPS
+            = { {1,2}, {2,1}, {2,-1}, {1,-2}, {-1,-2}, {-2,-1}, {-2,1}, {-1,2} };
+    // {rank step, file step} of each direction, also the king's steps
+    private static final int[][] DIRECTION_STEPS
+            = { {1,0}, {1,1}, {0,1}, {-1,1}, {-1,0}, {-1,-1}, {0,-1}, {1,-1} };
+
+    static
+    {
+        for ( int sq = 0; sq < NUM_OF_SQUARES; sq++ )
+        {
+            int rank = rankOf(sq);
+            int file = fileOf(sq);
+            for ( int[] step : KNIGHT_STEPS )
+                KNIGHT_ATTACKS[sq] |= maskOf(rank + step[0], file + step[1]);
+            PAWN_ATTACKS[Game.WHITE][sq] = maskOf(rank + 1, file - 1) | maskOf(rank + 1, file + 1);
+            PAWN_ATTACKS[Game.BLACK][sq] = maskOf(rank - 1, file - 1) | maskOf(rank - 1, file + 1);
+
+            for ( int to = 0; to < NUM_OF_SQUARES; to++ )
+                DIRECTION[sq][to] = NO_DIRECTION;
+            for ( int dir = 0; dir < NUM_OF_DIRECTIONS; dir++ )
+            {
+                int[] step = DIRECTION_STEPS[dir];
+                KING_ATTACKS[sq] |= maskOf(rank + step[0], file + step[1]);
+
+                // walk the ray, everything passed is between sq and the next square
+                long between = 0L;
+                for ( int r = rank + step[0], f = file + step[1];
+                        r >= 0 && r <= 7 && f >= 0 && f <= 7; r += step[0], f += step[1] )
+                {
+                    int to = squareOf(r, f);
+                    RAY[sq][dir] |= 1L << to;
+                    DIRECTION[sq][to] = dir;
+                    SQUARES_BETWEEN[sq][to] = between;
+                    between |= 1L << to;
+                }
+            }
+            ROOK_ATTACKS[sq] = RAY[sq][NORTH] | RAY[sq][EAST] | RAY[sq][SOUTH] | RAY[sq][WEST];
+            BISHOP_ATTACKS[sq] = RAY[sq][NORTH_EAST] | RAY[sq][SOUTH_EAST]
+                    | RAY[sq][SOUTH_WEST] | RAY[sq][NORTH_WEST];
+            QUEEN_ATTACKS[sq] = ROOK_ATTACKS[sq] | BISHOP_ATTACKS[sq];
+        }
+    }
+
+    private Bitboard() { }
+
+    static int squareOf(int inRank, int inFile) { return (inRank << 3) | inFile; }
+    static int rankOf(int square) { return square >>> 3; }
+    static int fileOf(int square) { return square & 7; }
+
+    /**
+     * @return a bitboard with only the square set, or 0 if the
+     *          coordinate is off the board
+     */
+    static long maskOf(int inRank, int inFile)
+    {   if ( inRank < 0 || inRank > 7 || inFile < 0 || inFile > 7 ) return 0L;
+        return 1L << squareOf(inRank, inFile);
+    }
+
+    /**
+     * @return index of the lowest set bit. bitboard must not be 0
+     */
+    static int firstSquare(long bitboard) { return Long.numberOfTrailingZeros(bitboard); }
+
+    /**
+     * @return index of the highest set bit. bitboard must not be 0
+     */
+    static int lastSquare(long bitboard) { return 63 - Long.numberOfLeadingZeros(bitboard); }
+
+    static boolean hasMoreThanOneBit(long bitboard) { return (bitboard & (bitboard - 1)) != 0L; }
+
+    /**
+     * Squares a rook on square attacks, up to and including the first
+     * occupied square in each direction
+     * @param square square of the rook
+     * @param occupied bitboard of occupied squares
+     * @return attacked squares
+     */
+    static long rookAttacks(int square, long occupied)
+    {
+        return rayAttacks(square, occupied, NORTH) | rayAttacks(square, occupied, EAST)
+                | rayAttacks(square, occupied, SOUTH) | rayAttacks(square, occupied, WEST);
+    }
+
+    /**
+     * Squares a bishop on square attacks, up to and including the first
+     * occupied square in each direction
+     * @param square square of the bishop
+     * @param occupied bitboard of occupied squares
+     * @return attacked squares
+     */
+    static long bishopAttacks(int square, long occupied)
+    {
+        return rayAttacks(square, occupied, NORTH_EAST) | rayAttacks(square, occupied, SOUTH_EAST)
+                | rayAttacks(square, occupied, SOUTH_WEST) | rayAttacks(square, occupied, NORTH_WEST);
+    }
+
+    private static long rayAttacks(int square, long occupied, int direction)
+    {
+        long attacks = RAY[square][direction];
+        long blockers = attacks & occupied;
+        if ( blockers != 0L )
+        {   // cut the ray off behind the nearest blocker
+            int blocker = ( DIRECTION_SHIFTS[direction] > 0 )
+                    ? firstSquare(blockers) : lastSquare(blockers);
+            attacks ^= RAY[blocker][direction];
+        }
+        return attacks;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads positions from a FEN file, one position per line.
+ * Blank lines and lines starting with '#' are skipped. Each game is
+ * set up directly from its FEN, without replaying moves.
+ */
+public class FENLoader
+{
+    protected final String filename;
+    protected final List<String> positions;
+    protected int index;
+
+    /**
+     * Reads all the positions of a FEN file
+     * @param filename FEN file
+     * @throws IOException if the file cannot be read
+     */
+    public FENLoader( String filename ) throws IOException
+    {
+        this.filename = filename;
+        positions = new ArrayList<>();
+        try ( BufferedReader reader = Files.newBufferedReader(
+                Paths.get(filename), StandardCharsets.ISO_8859_1 ) )
+        {
+            String line;
+            while ( (line = reader.readLine()) != null )
+            {
+                line = line.trim();
+                if ( !line.isEmpty() && line.charAt(0) != '#' )
+                    positions.add(line);
+            }
+        }
+        index = 0;
+    }
+
+    public final int getNumberOfGames()
+    { return positions.size(); }
+
+    public boolean hasNextGame()
+    { return index < positions.size(); }
+
+    /**
+     * @return the next position as a started game, or null if there are no more
+     * @throws IllegalArgumentException if the position is not a legal FEN
+     */
+    public Game getNextGame()
+    {
+        if ( !hasNextGame() ) return null;
+        return Game.fromFEN( positions.get(index++) ).startGame();
+    }
+
+    /**
+     * Sets up every remaining position
+     * @return started games, in file order
+     * @throws IllegalArgumentException if a position is not a legal FEN
+     */
+    public List<Game> getAllGames()
+    {
+        List<Game> games = new ArrayList<>( positions.size() - index );
+        while ( hasNextGame() )
+            games.add( getNextGame() );
+        return games;
+    }
+}
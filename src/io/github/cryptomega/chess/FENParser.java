@@ -0,0 +1,206 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess;
+
+/**
+ * Parses Forsyth-Edwards Notation in one pass, without splitting or
+ * regular expressions. The result of the last parse is kept in the
+ * fields, ready for Game to place the pieces.
+ *
+ * The halfmove clock and fullmove number may be left out, as in EPD,
+ * and default to 0 and 1. Anything after them is ignored. Castling
+ * rights whose king or rook is not on its starting square are dropped.
+ */
+final class FENParser
+{
+    final long[] ColorBitboards = new long[2];                 // [BLACK], [WHITE]
+    final long[] TypeBitboards = new long[Game.NUMBER_OF_TYPES]; // [PAWN_INDEX]...[KING_INDEX]
+    int WhoseTurn;
+    int CastlingRights;  // black's rights in bits 0-1, white's in bits 2-3, as in GameSnapshot
+    int EnPassantSquare; // 8*inRank + inFile, or -1
+    int HalfMoveClock;
+    int TurnCount;       // plies played, from the fullmove number
+
+    private static final long BACK_RANKS = Bitboard.RANK_1 | (Bitboard.RANK_1 << 56);
+
+    private CharSequence Fen;
+    private int Index;
+
+    /**
+     * Parses a FEN string
+     * @param fen example: "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1"
+     * @throws IllegalArgumentException if fen is not a legal FEN position
+     */
+    void parse(CharSequence fen)
+    {
+        Fen = fen;
+        Index = 0;
+        ColorBitboards[Game.BLACK] = ColorBitboards[Game.WHITE] = 0L;
+        for ( int i = 0; i < TypeBitboards.length; i++ )
+            TypeBitboards[i] = 0L;
+
+        skipSpaces();
+        parseBoard();
+        skipField();
+        parseWhoseTurn();
+        skipField();
+        parseCastlingRights();
+        skipField();
+        parseEnPassantSquare();
+
+        HalfMoveClock = 0;
+        int fullMoveNumber = 1;
+        skipSpaces();
+        if ( Index < Fen.length() && isDigit(Fen.charAt(Index)) )
+        {   HalfMoveClock = parseNumber();
+            skipSpaces();
+            if ( Index < Fen.length() && isDigit(Fen.charAt(Index)) )
+                fullMoveNumber = Math.max(1, parseNumber());
+        }
+        TurnCount = 2*(fullMoveNumber - 1) + ( (WhoseTurn == Game.BLACK) ? 1 : 0 );
+        Fen = null;
+    }
+
+    // piece placement, from rank 8 down to rank 1
+    private void parseBoard()
+    {
+        for ( int rank = 7; rank >= 0; rank-- )
+        {
+            int file = 0;
+            while ( file < 8 )
+            {
+                char c = nextChar();
+                if ( c >= '1' && c <= '8' )
+                {   file += c - '0';
+                    continue;
+                }
+                int typeIndex = getTypeIndexOf( Character.toUpperCase(c) );
+                if ( typeIndex == -1 )
+                    throw error("Invalid piece '" + c + "'");
+                long square = 1L << Bitboard.squareOf(rank, file);
+                ColorBitboards[ Character.isUpperCase(c) ? Game.WHITE : Game.BLACK ] |= square;
+                TypeBitboards[typeIndex] |= square;
+                file++;
+            }
+            if ( file != 8 )
+                throw error("Rank " + (rank + 1) + " is too long");
+            if ( rank != 0 && nextChar() != '/' )
+                throw error("Expected '/' after rank " + (rank + 1));
+        }
+
+        long kings = TypeBitboards[Game.KING_INDEX];
+        if ( Long.bitCount(kings & ColorBitboards[Game.WHITE]) != 1
+                || Long.bitCount(kings & ColorBitboards[Game.BLACK]) != 1 )
+            throw error("Each side needs one king");
+        if ( (TypeBitboards[Game.PAWN_INDEX] & BACK_RANKS) != 0L )
+            throw error("Pawn on the first or last rank");
+    }
+
+    private void parseWhoseTurn()
+    {
+        char c = nextChar();
+        if ( c == 'w' ) WhoseTurn = Game.WHITE;
+        else if ( c == 'b' ) WhoseTurn = Game.BLACK;
+        else throw error("Invalid side to move '" + c + "'");
+    }
+
+    private void parseCastlingRights()
+    {
+        CastlingRights = 0;
+        if ( peekChar() == '-' )
+        {   Index++;
+            return;
+        }
+        while ( Index < Fen.length() && !isSpace(Fen.charAt(Index)) )
+        {
+            char c = Fen.charAt(Index++);
+            switch ( c )
+            {   case 'K': addCastlingRight(Game.WHITE, Game.CASTLE_KINGSIDE, 7); break;
+                case 'Q': addCastlingRight(Game.WHITE, Game.CASTLE_QUEENSIDE, 0); break;
+                case 'k': addCastlingRight(Game.BLACK, Game.CASTLE_KINGSIDE, 7); break;
+                case 'q': addCastlingRight(Game.BLACK, Game.CASTLE_QUEENSIDE, 0); break;
+                default: throw error("Invalid castling right '" + c + "'");
+            }
+        }
+    }
+
+    // keeps the right only if the king and rook are on their starting squares
+    private void addCastlingRight(int color, int right, int rookFile)
+    {
+        int rank = ( color == Game.WHITE ) ? 0 : 7;
+        long pieces = ColorBitboards[color];
+        if ( (pieces & TypeBitboards[Game.KING_INDEX] & (1L << Bitboard.squareOf(rank, 4))) != 0L
+                && (pieces & TypeBitboards[Game.ROOK_INDEX] & (1L << Bitboard.squareOf(rank, rookFile))) != 0L )
+            CastlingRights |= right << (2*color);
+    }
+
+    private void parseEnPassantSquare()
+    {
+        char c = nextChar();
+        if ( c == '-' )
+        {   EnPassantSquare = -1;
+            return;
+        }
+        char rank = nextChar();
+        if ( c < 'a' || c > 'h' || rank != ((WhoseTurn == Game.WHITE) ? '6' : '3') )
+            throw error("Invalid en passant square");
+        EnPassantSquare = Bitboard.squareOf(rank - '1', c - 'a');
+    }
+
+    private int parseNumber()
+    {
+        long number = 0;
+        while ( Index < Fen.length() && isDigit(Fen.charAt(Index)) )
+        {   number = 10*number + (Fen.charAt(Index++) - '0');
+            if ( number > Integer.MAX_VALUE )
+                throw error("Number too large");
+        }
+        return (int)number;
+    }
+
+    // the field just parsed must be followed by spaces
+    private void skipField()
+    {
+        if ( Index >= Fen.length() )
+            throw error("Missing field");
+        if ( !isSpace(Fen.charAt(Index)) )
+            throw error("Unexpected '" + Fen.charAt(Index) + "'");
+        skipSpaces();
+    }
+
+    private void skipSpaces()
+    {
+        while ( Index < Fen.length() && isSpace(Fen.charAt(Index)) )
+            Index++;
+    }
+
+    private char nextChar()
+    {
+        if ( Index >= Fen.length() )
+            throw error("Missing field");
+        return Fen.charAt(Index++);
+    }
+
+    private char peekChar()
+    { return ( Index < Fen.length() ) ? Fen.charAt(Index) : ' '; }
+
+    private IllegalArgumentException error(String message)
+    { return new IllegalArgumentException(message + " in FEN \"" + Fen + "\""); }
+
+    private static int getTypeIndexOf(char type)
+    {
+        switch ( type )
+        {   case Game.PAWN:   return Game.PAWN_INDEX;
+            case Game.KNIGHT: return Game.KNIGHT_INDEX;
+            case Game.BISHOP: return Game.BISHOP_INDEX;
+            case Game.ROOK:   return Game.ROOK_INDEX;
+            case Game.QUEEN:  return Game.QUEEN_INDEX;
+            case Game.KING:   return Game.KING_INDEX;
+            default:          return -1;
+        }
+    }
+
+    private static boolean isSpace(char c) { return c == ' ' || c == '\t'; }
+    private static boolean isDigit(char c) { return c >= '0' && c <= '9'; }
+}
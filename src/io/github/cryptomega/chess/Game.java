@@ -9,11 +9,11 @@ package io.github.cryptomega.chess;
 
 import static java.lang.Math.abs;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
+import java.util.Map;
 //import org.springframework.util.StopWatch;
 
 
@@ -38,6 +38,7 @@ public class Game
     public static final int BOARD_NUMBER_FILES = 8;
     public static final int CHESSPEICE_LIST_CAPACITY = 35;
     public static final int HISTORY_PADDING = 7;
+    private static final int POSITION_STACK_CAPACITY = 128;
     
     // Piece types
     public static final char KING =   'K';
@@ -46,7 +47,31 @@ public class Game
     public static final char KNIGHT = 'N';
     public static final char ROOK =   'R';
     public static final char PAWN =   'P';
-    
+
+    // Piece type indexes, used for bitboards and lookup tables
+    static final int PAWN_INDEX   = 0;
+    static final int KNIGHT_INDEX = 1;
+    static final int BISHOP_INDEX = 2;
+    static final int ROOK_INDEX   = 3;
+    static final int QUEEN_INDEX  = 4;
+    static final int KING_INDEX   = 5;
+    static final int NUMBER_OF_TYPES = 6;
+    private static final char[] TYPES_BY_INDEX = { PAWN, KNIGHT, BISHOP, ROOK, QUEEN, KING };
+    // material value of each type index, in pawns
+    private static final int[] VALUES_BY_INDEX = { 1, 3, 3, 5, 9, 0 };
+    // values for exchanges, where the king may capture last
+    private static final int[] EXCHANGE_VALUES_BY_INDEX = { 1, 3, 3, 5, 9, 100 };
+
+    // size of a buffer able to hold every legal move of any position
+    public static final int MAX_LEGAL_MOVES = 256;
+
+    // no en passant square
+    private static final int NO_SQUARE = -1;
+
+    // castling rights bits, see getCastlingRightsIn()
+    static final int CASTLE_KINGSIDE  = 1;
+    static final int CASTLE_QUEENSIDE = 2;
+
     // makeMove() and isValidMove() callback codes
     public static final int MOVE_LEGAL                        = 100;
     public static final int MOVE_LEGAL_EN_PASSANT             = 101;
@@ -116,9 +141,8 @@ public class Game
             = "[^PRNBQKa-h]*([PRNBQK]?)([a-h1-8]?).*([a-h][1-8])=?([qbnrQBNR]?)(.*)";
 
     
-    private Matcher matcherCastle = null;
-    private Matcher matcherFull   = null;
-    private Matcher matcherDisamb = null;
+    // parses move text for makeMove() and validateMove()
+    private final MoveTextScanner MoveScanner = new MoveTextScanner();
 
     /* ****************************************
      * * * Game State variables * * *
@@ -131,10 +155,8 @@ public class Game
     private boolean GameBlackClaimsDraw;
     private double GameWhiteTimeLeft;  // time left in seconds
     private double GameBlackTimeLeft;  // time left in seconds
-    
-    // useful index tracker variables
-    private int WhiteKingIndex = -1;
-    private int BlackKingIndex = -1;
+    private int EnPassantSquare = NO_SQUARE; // square a pawn just skipped, 8*inRank + inFile
+    private int StartingEnPassantSquare = NO_SQUARE; // EnPassantSquare of the setup, before any move
     
     // Game variables, options and preferences. Do not need to be reset between games
     private int StartingMinutes = 10;
@@ -169,6 +191,52 @@ public class Game
     private final ChessPiece[][] GameBoard =
             new ChessPiece[BOARD_NUMBER_RANKS][BOARD_NUMBER_FILES]; 
 
+    /************************************************
+     * Bitboards - mirror GameBoard, one bit per square,
+     * bit (8*inRank + inFile). a1 -> bit 0, b1 -> bit 1, etc.
+     * Only updated through setSquareIn() so they always
+     * match the pieces on GameBoard.
+     ***********************************************/
+    private final long[] ColorBitboards = new long[2];  // [BLACK], [WHITE]
+    private final long[] TypeBitboards = new long[NUMBER_OF_TYPES]; // [PAWN_INDEX]...[KING_INDEX]
+    // Zobrist keys of the pieces on the board, see getPositionHash()
+    private long PieceHash = 0L;
+    // material on the board, [BLACK], [WHITE]. See getMaterial()
+    private final int[] Material = new int[2];
+
+    /************************************************
+     * Check info - pieces checking each king and pieces
+     * pinned to it, computed once per position by
+     * updateCheckInfo(). setSquareIn() invalidates it,
+     * so it lasts until the next move is made.
+     ***********************************************/
+    private final boolean[] isCheckInfoValid = new boolean[2];  // [BLACK], [WHITE]
+    private final long[] Checkers = new long[2];      // enemy pieces checking [color]'s king
+    private final long[] PinnedPieces = new long[2];  // [color]'s pieces pinned to its king
+    // squares a pinned piece may move to, from its king up to and including
+    // the pinning piece. indexed by square of the pinned piece
+    private final long[] PinRays = new long[Bitboard.NUM_OF_SQUARES];
+
+    // scratch space for move generation in hasAnyLegalMoveIn()
+    private final int[] ScratchMoves = new int[MAX_LEGAL_MOVES];
+    // scratch space for getStaticExchange(), one gain per capture
+    private final int[] ExchangeGains = new int[33];
+
+    /************************************************
+     * Legal move cache. LegalTargets holds the legal target squares
+     * of the side to move, by from square. It is built by
+     * buildLegalMoves() when a query needs many moves, and the last
+     * validateMoveIn() result is kept so validating and then making a
+     * move checks it once. setSquareIn() invalidates both.
+     ***********************************************/
+    private final long[] LegalTargets = new long[Bitboard.NUM_OF_SQUARES];
+    private int LegalMovesColor = -1;   // color LegalTargets was built for, or -1
+    private int LegalMovesEnPassant;    // EnPassantSquare when it was built
+    private ChessPiece ValidatedPiece;  // piece of the last validation, or null
+    private int ValidatedTo;
+    private int ValidatedEnPassant;
+    private int ValidatedCode;
+
     /* *************************************************
      * * * * ArrayList of all chess pieces * * * 
      * *************************************************/
@@ -181,6 +249,34 @@ public class Game
     
     // hold future moves if for navigating through moves
     private final ArrayList<RecordOfMove> GameFuture; 
+
+    /* *************************************************
+     * * * * Position hashes and halfmove clocks * * * 
+     * [0] is the position the game started from, [i] the
+     * position after GameHistory.get(i-1). Kept in step
+     * with GameHistory, and followed by the positions of
+     * any doMove() calls. Used for the draw rules.
+     * ************************************************/
+    private long[] PositionHashes = new long[POSITION_STACK_CAPACITY];
+    private int[] HalfMoveClocks = new int[POSITION_STACK_CAPACITY];
+    private int PositionCount = 0;
+    // positions [0, SharedPositionCount) as a list shared with
+    // snapshots, extended by snapshot()
+    private GameSnapshot.PositionNode SharedPositions = null;
+    private int SharedPositionCount = 0;
+    
+    /* *************************************************
+     * * * * Undo stack for doMove() and undoMove() * * * 
+     * The move, the piece moved, the piece captured, the
+     * en passant square before each move and, for castling,
+     * the square the rook started on.
+     * ************************************************/
+    private int[] UndoMoves = new int[POSITION_STACK_CAPACITY];
+    private ChessPiece[] UndoMovedPieces = new ChessPiece[POSITION_STACK_CAPACITY];
+    private ChessPiece[] UndoCapturedPieces = new ChessPiece[POSITION_STACK_CAPACITY];
+    private int[] UndoEnPassantSquares = new int[POSITION_STACK_CAPACITY];
+    private int[] UndoRookSquares = new int[POSITION_STACK_CAPACITY];
+    private int UndoCount = 0;
     
 
     /* *************************************************
@@ -204,9 +300,6 @@ public class Game
         GameStateListeners = new ArrayList<>(1);
         
         clearGame(); 
-        
-        // initialize patterns
-        initPatterns();
     }
     
     /**
@@ -256,6 +349,8 @@ public class Game
         this.GameBlackClaimsDraw  = originalGame.GameBlackClaimsDraw;
         this.GameWhiteTimeLeft  = originalGame.GameWhiteTimeLeft;  // time left in seconds
         this.GameBlackTimeLeft  = originalGame.GameBlackTimeLeft;  // time left in seconds
+        this.EnPassantSquare  = originalGame.EnPassantSquare;
+        this.StartingEnPassantSquare  = originalGame.StartingEnPassantSquare;
         
         // initialize lists
         this.GamePieces = new ArrayList<>(CHESSPEICE_LIST_CAPACITY);
@@ -264,9 +359,6 @@ public class Game
         this.GameStateListeners = new ArrayList<>(1);
         this.clearBoard();
         
-        // initialize patterns
-        initPatterns();
-        
         // create a HashMap
         HashMap<ChessPiece,ChessPiece> hashmap = new HashMap<>();
         hashmap.put(null, null); // empty squares and null references get mapped to null
@@ -286,11 +378,30 @@ public class Game
         // copy board with references mapped
         for (int r = 0; r < BOARD_NUMBER_RANKS; r++)
             for (int f = 0; f < BOARD_NUMBER_FILES; f++)
-               this.GameBoard[r][f] = hashmap.get(originalGame.GameBoard[r][f] );
+               this.setSquareIn(r, f, hashmap.get(originalGame.GameBoard[r][f] ) );
         
         // copy history with references mapped
         for ( RecordOfMove originalRecord : originalGame.GameHistory )
             this.GameHistory.add( new RecordOfMove(originalRecord, hashmap) );
+        this.PositionHashes = Arrays.copyOf(originalGame.PositionHashes, originalGame.PositionHashes.length);
+        this.HalfMoveClocks = Arrays.copyOf(originalGame.HalfMoveClocks, originalGame.HalfMoveClocks.length);
+        this.PositionCount = originalGame.PositionCount;
+        this.SharedPositions = originalGame.SharedPositions; // immutable, so shared
+        this.SharedPositionCount = originalGame.SharedPositionCount;
+        
+        // copy undo stack with references mapped
+        this.UndoMoves = Arrays.copyOf(originalGame.UndoMoves, originalGame.UndoMoves.length);
+        this.UndoEnPassantSquares = Arrays.copyOf(originalGame.UndoEnPassantSquares, 
+                originalGame.UndoEnPassantSquares.length);
+        this.UndoRookSquares = Arrays.copyOf(originalGame.UndoRookSquares, 
+                originalGame.UndoRookSquares.length);
+        this.UndoMovedPieces = new ChessPiece[originalGame.UndoMovedPieces.length];
+        this.UndoCapturedPieces = new ChessPiece[originalGame.UndoCapturedPieces.length];
+        for ( int i = 0; i < originalGame.UndoCount; i++ )
+        {   this.UndoMovedPieces[i] = hashmap.get( originalGame.UndoMovedPieces[i] );
+            this.UndoCapturedPieces[i] = hashmap.get( originalGame.UndoCapturedPieces[i] );
+        }
+        this.UndoCount = originalGame.UndoCount;
 
         
         // disregard timer
@@ -301,6 +412,215 @@ public class Game
         if ( stealListeners ) this.GameStateListeners = originalGame.GameStateListeners;
     }
     
+    /**
+     * Builds a game at the position of a snapshot. See GameSnapshot.toGame()
+     * @param snapshot snapshot made by snapshot()
+     */
+    Game(GameSnapshot snapshot)
+    {
+        this();
+        
+        placePiecesIn(snapshot.ColorBitboards, snapshot.TypeBitboards, snapshot.CastlingRights);
+        
+        this.GameWhoseTurn = snapshot.WhoseTurn;
+        this.EnPassantSquare = this.StartingEnPassantSquare = snapshot.EnPassantSquare;
+        this.GameTurnCount = snapshot.TurnCount;
+        this.GameState = snapshot.GameState;
+        this.isGameActive = snapshot.isGameActive;
+        
+        // positions back to the last pawn move or capture, for the draw rules
+        GameSnapshot.PositionNode node = snapshot.Positions;
+        int count = ( node == null ) ? 0 
+                : Math.min(node.HalfMoveClock + 1, snapshot.PositionCount);
+        if ( count > PositionHashes.length )
+        {   PositionHashes = new long[count];
+            HalfMoveClocks = new int[count];
+        }
+        for ( int i = count - 1; i >= 0; i-- )
+        {   PositionHashes[i] = node.Hash;
+            HalfMoveClocks[i] = node.HalfMoveClock;
+            node = node.Previous;
+        }
+        PositionCount = count;
+    }
+    
+    /**
+     * Packs the position into an immutable value of four longs.
+     * See PackedPosition
+     * @return packed position
+     * @throws IllegalStateException if there are more than 32 pieces
+     */
+    public PackedPosition toPackedPosition()
+    {
+        int[] stones = new int[Bitboard.NUM_OF_SQUARES];
+        for ( int color = BLACK; color <= WHITE; color++ )
+            for ( int typeIndex = PAWN_INDEX; typeIndex <= KING_INDEX; typeIndex++ )
+                for ( long pieces = ColorBitboards[color] & TypeBitboards[typeIndex]; 
+                        pieces != 0L; pieces &= pieces - 1 )
+                    stones[Bitboard.firstSquare(pieces)] = PackedPosition.getStoneOf(color, typeIndex);
+        
+        int castles = 0;
+        int rights = getCastlingRightsIn(WHITE);
+        if ( (rights & CASTLE_KINGSIDE) != 0 ) castles |= PackedPosition.WHITE_SHORT_CASTLE;
+        if ( (rights & CASTLE_QUEENSIDE) != 0 ) castles |= PackedPosition.WHITE_LONG_CASTLE;
+        rights = getCastlingRightsIn(BLACK);
+        if ( (rights & CASTLE_KINGSIDE) != 0 ) castles |= PackedPosition.BLACK_SHORT_CASTLE;
+        if ( (rights & CASTLE_QUEENSIDE) != 0 ) castles |= PackedPosition.BLACK_LONG_CASTLE;
+        
+        try
+        {   return PackedPosition.pack(stones, 
+                    (GameWhoseTurn == WHITE) ? chesspresso.Chess.WHITE : chesspresso.Chess.BLACK,
+                    castles, EnPassantSquare, getHalfMoveClock(), GameTurnCount);
+        } catch ( IllegalArgumentException e ) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Sets up a new game at a packed position. Call startGame() to begin
+     * @param position position made by toPackedPosition() or 
+     *          PackedPosition.valueOf()
+     * @return new Game instance
+     */
+    public static Game fromPackedPosition(PackedPosition position)
+    {
+        Game game = new Game();
+        game.setupPositionIn(position);
+        return game;
+    }
+    
+    private void setupPositionIn(PackedPosition position)
+    {
+        for ( int square = 0; square < Bitboard.NUM_OF_SQUARES; square++ )
+        {   int stone = position.getStone(square);
+            if ( stone != chesspresso.Chess.NO_STONE )
+                addSetupPieceIn( PackedPosition.getColorOfStone(stone),
+                        PackedPosition.getTypeIndexOfStone(stone), square );
+        }
+        int castles = position.getCastles();
+        setCastlingRightsIn(WHITE, 
+                ( ((castles & PackedPosition.WHITE_SHORT_CASTLE) != 0) ? CASTLE_KINGSIDE : 0 )
+                | ( ((castles & PackedPosition.WHITE_LONG_CASTLE) != 0) ? CASTLE_QUEENSIDE : 0 ) );
+        setCastlingRightsIn(BLACK, 
+                ( ((castles & PackedPosition.BLACK_SHORT_CASTLE) != 0) ? CASTLE_KINGSIDE : 0 )
+                | ( ((castles & PackedPosition.BLACK_LONG_CASTLE) != 0) ? CASTLE_QUEENSIDE : 0 ) );
+        
+        finishSetupIn( ( position.getToPlay() == chesspresso.Chess.WHITE ) ? WHITE : BLACK,
+                position.getSqiEP(), position.getPlyNumber(), position.getHalfMoveClock() );
+    }
+    
+    /**
+     * Sets up the pieces, castling rights, en passant square and clocks
+     * of a position in Forsyth-Edwards Notation. Call startGame() to begin!
+     * The halfmove clock and fullmove number may be left out.
+     * @param fen example: "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1"
+     * @return current Game instance, or null if the game is active
+     * @throws IllegalArgumentException if fen is not a legal FEN position
+     */
+    public Game setupFENGame(String fen)
+    {
+        if ( isGameActive == true )
+            return null; // soft fail
+        
+        FENParser parser = new FENParser();
+        parser.parse(fen);
+        placePiecesIn(parser.ColorBitboards, parser.TypeBitboards, parser.CastlingRights);
+        finishSetupIn(parser.WhoseTurn, parser.EnPassantSquare, 
+                parser.TurnCount, parser.HalfMoveClock);
+        startingFEN = fen;
+        return this;
+    }
+    
+    /**
+     * Sets up a new game at a FEN position. Call startGame() to begin
+     * @param fen position in Forsyth-Edwards Notation
+     * @return new Game instance
+     * @throws IllegalArgumentException if fen is not a legal FEN position
+     */
+    public static Game fromFEN(String fen)
+    { return new Game().setupFENGame(fen); }
+    
+    // adds the pieces of a position, castlingRights as in GameSnapshot
+    private void placePiecesIn(long[] colorBitboards, long[] typeBitboards, int castlingRights)
+    {
+        for ( int color = BLACK; color <= WHITE; color++ )
+            for ( long pieces = colorBitboards[color]; pieces != 0L; pieces &= pieces - 1 )
+            {
+                int square = Bitboard.firstSquare(pieces);
+                int typeIndex = PAWN_INDEX;
+                while ( (typeBitboards[typeIndex] & (1L << square)) == 0L )
+                    typeIndex++;
+                addSetupPieceIn(color, typeIndex, square);
+            }
+        for ( int color = BLACK; color <= WHITE; color++ )
+            setCastlingRightsIn(color, (castlingRights >>> (2*color)) & 3);
+    }
+    
+    // sets the game variables once the pieces are placed, and records 
+    // the starting position with the halfmove clock it was given
+    private void finishSetupIn(int whoseTurn, int enPassantSquare, int turnCount, int halfMoveClock)
+    {
+        GameWhoseTurn = whoseTurn;
+        EnPassantSquare = StartingEnPassantSquare = enPassantSquare;
+        GameTurnCount = turnCount;
+        GameState = getSetupStateIn(GameWhoseTurn);
+        
+        clearHistory();
+        pushPositionIn(GameWhoseTurn, true);
+        HalfMoveClocks[0] = halfMoveClock;
+    }
+    
+    // game state of a position set up with color to move, as endTurn() would leave it
+    private int getSetupStateIn(int color)
+    {
+        if ( drawByInsufficientMaterial() )
+            return STATUS_DRAW_MATERIAL;
+        switch ( checkPlayerState(color) )
+        {   case PLAYER_IN_CHECK:
+                return ( color == WHITE ) ? STATUS_WHITE_IN_CHECK : STATUS_BLACK_IN_CHECK;
+            case PLAYER_IN_CHECKMATE:
+                return ( color == WHITE ) ? STATUS_BLACK_WINS_CHECKMATE : STATUS_WHITE_WINS_CHECKMATE;
+            case PLAYER_IN_STALEMATE:
+                return ( color == WHITE ) ? STATUS_DRAW_WHITE_STALEMATE : STATUS_DRAW_BLACK_STALEMATE;
+            default:
+                return ( color == WHITE ) ? STATUS_WHITES_TURN : STATUS_BLACKS_TURN;
+        }
+    }
+    
+    /**
+     * Adds a piece for a position setup. Pieces off their starting squares
+     * have moved. Kings and rooks count as moved until setCastlingRightsIn()
+     * gives their castling rights back
+     */
+    private void addSetupPieceIn(int color, int typeIndex, int square)
+    {
+        int rank = Bitboard.rankOf(square);
+        ChessPiece piece = addPieceToGame(color, TYPES_BY_INDEX[typeIndex], 
+                rank, Bitboard.fileOf(square));
+        if ( typeIndex == KING_INDEX || typeIndex == ROOK_INDEX
+                || ( typeIndex == PAWN_INDEX && rank != ((color == WHITE) ? 1 : 6) ) )
+            piece.MoveCount = 1;
+    }
+    
+    /**
+     * Takes an immutable snapshot of the position. The cost does not
+     * grow with the length of the game, see GameSnapshot
+     * @return snapshot, use GameSnapshot.toGame() to play on from it
+     */
+    public GameSnapshot snapshot()
+    {
+        // share the positions played since the last snapshot
+        while ( SharedPositionCount < PositionCount )
+        {   SharedPositions = new GameSnapshot.PositionNode(SharedPositions,
+                    PositionHashes[SharedPositionCount], HalfMoveClocks[SharedPositionCount]);
+            SharedPositionCount++;
+        }
+        int castlingRights = getCastlingRightsIn(BLACK) | ( getCastlingRightsIn(WHITE) << 2 );
+        return new GameSnapshot(ColorBitboards, TypeBitboards, GameWhoseTurn,
+                castlingRights, EnPassantSquare, GameTurnCount, GameState, isGameActive,
+                getPositionHash(), SharedPositions, SharedPositionCount);
+    }
+    
         
         private ChessPiece copyPiece(ChessPiece original)
         {
@@ -439,6 +759,50 @@ public class Game
     public List<ChessPiece> getPieces()
         { return  (List<ChessPiece>) GamePieces.clone(); }
     
+    /**
+     * Gets the pieces of one color and type on the board
+     * @param color WHITE or BLACK
+     * @param type KING, QUEEN, BISHOP, KNIGHT, ROOK or PAWN
+     * @return references to the pieces, in square order from a1
+     */
+    public List<ChessPiece> getPieces(int color, char type)
+    {
+        long pieces = ColorBitboards[color] & TypeBitboards[getTypeIndex(type)];
+        List<ChessPiece> list = new ArrayList<>( Long.bitCount(pieces) );
+        for ( ; pieces != 0L; pieces &= pieces - 1 )
+            list.add( getPieceOnSquare(Bitboard.firstSquare(pieces)) );
+        return list;
+    }
+    
+    /**
+     * Gets the squares of one color and type of piece as a bitboard,
+     * for code that works on sets of squares
+     * @param color WHITE or BLACK
+     * @param type KING, QUEEN, BISHOP, KNIGHT, ROOK or PAWN
+     * @return bit 8*inRank + inFile set for each piece, a1 is bit 0
+     */
+    public long getPieceBitboard(int color, char type)
+    { return ColorBitboards[color] & TypeBitboards[getTypeIndex(type)]; }
+    
+    /**
+     * @param color WHITE or BLACK
+     * @param type KING, QUEEN, BISHOP, KNIGHT, ROOK or PAWN
+     * @return number of pieces of that color and type on the board
+     */
+    public int getPieceCount(int color, char type)
+    { return getPieceCountIn(color, getTypeIndex(type)); }
+    
+    private int getPieceCountIn(int color, int typeIndex)
+    { return Long.bitCount( ColorBitboards[color] & TypeBitboards[typeIndex] ); }
+    
+    /**
+     * Gets the material of a player, counting pawns 1, knights and 
+     * bishops 3, rooks 5 and queens 9. Kept up to date on every move
+     * @param color WHITE or BLACK
+     * @return material on the board, in pawns
+     */
+    public int getMaterial(int color) { return Material[color]; }
+    
     
     
     /**
@@ -465,24 +829,29 @@ public class Game
     /**
      * Gets the move history 
      * @return a String containing all the moves, 
-     *         one line per turn
+     *         one line per turn. A game set up with black to move
+     *         starts with "..." for white's move
      */
     public String getHistory() 
     {
         StringBuilder history = new StringBuilder();
-        boolean whitesTurn = true;
+        boolean lineStarted = false;
         for ( RecordOfMove item : GameHistory )
         {
-            if ( whitesTurn )
-                history.append( String.format("%1$3s", item.moveNumber) ).append(".");
+            boolean whitesTurn = item.whoseTurn == WHITE;
+            if ( !lineStarted )
+            {   history.append( String.format("%1$3s", item.moveNumber) ).append(".");
+                if ( !whitesTurn )
+                    history.append( String.format("%1$"+HISTORY_PADDING+"s", "...") ).append(" ");
+            }
             
-            history.append( String.format("%1$"+HISTORY_PADDING+"s", item.moveText) );
+            history.append( String.format("%1$"+HISTORY_PADDING+"s", item.getMoveText()) );
             
             if ( whitesTurn )
                 history.append( " ");
             else
                 history.append(  "\n" );
-            whitesTurn = !whitesTurn;
+            lineStarted = whitesTurn;
         }
         return history.toString();
     }
@@ -583,6 +952,8 @@ public class Game
      */
     public Game startGame()
     {
+        if ( PositionCount == 0 )
+            pushPositionIn(GameWhoseTurn, true); // record the starting position
         isGameActive = true;
         this.pushGameStartUpdate();
         return this;
@@ -624,6 +995,15 @@ public class Game
         return this;
     }
     
+    /**
+     * @return starting time in minutes, as set by setStartTime()
+     */
+    public int getStartingMinutes() { return StartingMinutes; }
+    /**
+     * @return per move increment in seconds, as set by setStartTime()
+     */
+    public int getIncrementSeconds() { return OnMoveIncrementSeconds; }
+    
 
     /**
      * Change the default timer
@@ -709,64 +1089,143 @@ public class Game
      *         and String Game.getMoveCodeText(Code)
      */
     public int makeMove(String move) 
+    { return makeMoveText(move, 0, move.length()); }
+    
+    /**
+     * Makes a series of moves, such as the move text of a PGN game.
+     * Moves are separated by whitespace. Move numbers ("12." or "12..."),
+     * numeric annotation glyphs ("$1"), game results ("1-0", "0-1",
+     * "1/2-1/2", "*"), comments ("{...}" and ";" to the end of the line)
+     * and variations ("(...)", which may nest) are skipped. Stops at the
+     * first move that is not legal.
+     * @param movetext Ex: "1. e4 e5 2. Nf3 Nc6 3. Bb5"
+     * @return the move Code of the last move tried, MOVE_LEGAL if there
+     *         were no moves
+     */
+    public int makeMoves(CharSequence movetext)
     {
-        if ( matcherCastle.reset(move).find() ) { // castling check
-             
-            if ( matcherCastle.group(2) == null )
-                return makeMoveCastleKingside();
-            else
-                return makeMoveCastleQueenside();
-            
-        } else if ( matcherFull.reset(move).matches() ) { // full coordinate check
-            
-            String from = matcherFull.group(1); // from location
-            String to = matcherFull.group(2); // to location
-            String promo = matcherFull.group(3); // promo type
-            if ( promo.equals("") )
-                return makeMoveIn(
-                    convertInRankFromAlgebraic(from),
-                    convertInFileFromAlgebraic(from),
-                    convertInRankFromAlgebraic(to),
-                    convertInFileFromAlgebraic(to)    );
-            else
-                return makeMoveIn(
-                    convertInRankFromAlgebraic(from),
-                    convertInFileFromAlgebraic(from),
-                    convertInRankFromAlgebraic(to),
-                    convertInFileFromAlgebraic(to), 
-                    promo.charAt(0) );
-            
-            
-        } else if ( matcherDisamb.reset(move).matches() ) {  // disambiguous check
-            
-            String piece = matcherDisamb.group(1); // from piece
-            String loc = matcherDisamb.group(2); // from location
-            String to = matcherDisamb.group(3); // to location
-            String promo = matcherDisamb.group(4);
-            
-            ///\\\\\\\\\\\\\\\\\
-            //\/////////////////
-            
-            List<ChessPiece> matches = this.matchPiece(piece, loc, to);
-            if ( matches.isEmpty() ) return MOVE_ILLEGAL;
-            else if ( matches.size() > 1 ) return AMBIGUOUS_MOVE;
-            ChessPiece p = matches.get(0);
-            
+        int code = MOVE_LEGAL;
+        int length = movetext.length();
+        int begin = 0;
+        while ( begin < length )
+        {
+            // find the next token, after any comments and variations
+            int skipped;
+            do
+            {   while ( begin < length && Character.isWhitespace(movetext.charAt(begin)) )
+                    begin++;
+                skipped = begin;
+                begin = skipCommentIn(movetext, begin);
+            } while ( begin != skipped );
+            int end = begin;
+            while ( end < length && !Character.isWhitespace(movetext.charAt(end))
+                    && !isCommentStart(movetext.charAt(end)) )
+                end++;
             
-            //////////////
+            // skip a move number, which may be written against its move "1.e4"
+            int digits = begin;
+            while ( digits < end && Character.isDigit(movetext.charAt(digits)) )
+                digits++;
+            int dots = digits;
+            while ( dots < end && movetext.charAt(dots) == '.' )
+                dots++;
+            if ( dots > digits ) 
+                begin = dots;
             
-            if ( promo.equals("") ) // check for promotion
-                return p.makeMoveIn(
-                    convertInRankFromAlgebraic(to),
-                    convertInFileFromAlgebraic(to) );
-            else
-                return p.makeMoveIn(
-                    convertInRankFromAlgebraic(to),
-                    convertInFileFromAlgebraic(to),
-                    promo.charAt(0) );
+            if ( begin < end && !isSkippedToken(movetext, begin, end) )
+            {   code = makeMoveText(movetext, begin, end);
+                if ( !isMoveCodeLegal(code) ) 
+                    return code;
+            }
+            begin = end;
+        }
+        return code;
+    }
+    
+    private static final String[] GAME_RESULTS = { "1-0", "0-1", "1/2-1/2", "*" };
+    
+    private static boolean isCommentStart(char c)
+    { return c == '{' || c == ';' || c == '('; }
+    
+    // index after the comment or variation starting at begin, or begin
+    // if there is none there. Unclosed ones run to the end of the text
+    private static int skipCommentIn(CharSequence text, int begin)
+    {
+        int length = text.length();
+        if ( begin >= length ) return begin;
+        int i = begin;
+        switch ( text.charAt(begin) )
+        {
+            case '{':
+                while ( i < length && text.charAt(i) != '}' ) i++;
+                return Math.min(i + 1, length);
+            case ';':
+                while ( i < length && text.charAt(i) != '\n' && text.charAt(i) != '\r' ) i++;
+                return i;
+            case '(':
+                int depth = 0;
+                for ( ; i < length; i++ )
+                {   char c = text.charAt(i);
+                    if ( c == '{' || c == ';' )
+                    {   i = skipCommentIn(text, i) - 1;  // parentheses in comments don't count
+                        continue;
+                    }
+                    if ( c == '(' ) depth++;
+                    else if ( c == ')' && --depth == 0 ) return i + 1;
+                }
+                return length;
+            default:
+                return begin;
+        }
+    }
+    
+    // game results and annotation glyphs in move text
+    private static boolean isSkippedToken(CharSequence text, int begin, int end)
+    {
+        if ( text.charAt(begin) == '$' ) return true;
+        for ( String result : GAME_RESULTS )
+        {   if ( result.length() != end - begin ) continue;
+            boolean same = true;
+            for ( int i = 0; same && i < result.length(); i++ )
+                same = result.charAt(i) == text.charAt(begin + i);
+            if ( same ) return true;
+        }
+        return false;
+    }
+    
+    private int makeMoveText(CharSequence move, int begin, int end)
+    {
+        MoveTextScanner scanner = MoveScanner;
+        switch ( scanner.scan(move, begin, end) )
+        {
+            case MoveTextScanner.CASTLE_KINGSIDE:
+                return makeMoveCastleKingside();
+            case MoveTextScanner.CASTLE_QUEENSIDE:
+                return makeMoveCastleQueenside();
+            case MoveTextScanner.COORDINATE:
+                int from = scanner.FromSquare;
+                int to = scanner.ToSquare;
+                if ( scanner.Promotion == MoveTextScanner.NONE )
+                    return makeMoveIn( Bitboard.rankOf(from), Bitboard.fileOf(from),
+                            Bitboard.rankOf(to), Bitboard.fileOf(to) );
+                else
+                    return makeMoveIn( Bitboard.rankOf(from), Bitboard.fileOf(from),
+                            Bitboard.rankOf(to), Bitboard.fileOf(to), scanner.Promotion );
+            case MoveTextScanner.ALGEBRAIC:
+                long matches = matchPiecesIn(scanner.PieceType, scanner.Location, scanner.ToSquare);
+                if ( matches == 0L ) return MOVE_ILLEGAL;
+                else if ( Bitboard.hasMoreThanOneBit(matches) ) return AMBIGUOUS_MOVE;
+                int square = Bitboard.firstSquare(matches);
+                ChessPiece p = GameBoard[Bitboard.rankOf(square)][Bitboard.fileOf(square)];
+                if ( scanner.Promotion == MoveTextScanner.NONE ) // check for promotion
+                    return p.makeMoveIn( Bitboard.rankOf(scanner.ToSquare), 
+                            Bitboard.fileOf(scanner.ToSquare) );
+                else
+                    return p.makeMoveIn( Bitboard.rankOf(scanner.ToSquare), 
+                            Bitboard.fileOf(scanner.ToSquare), scanner.Promotion );
+            default:
+                return MOVE_ILLEGAL; // unrecognized move
         }
-        
-        return MOVE_ILLEGAL; // unrecognized move
     }
     
     
@@ -780,53 +1239,29 @@ public class Game
      */
     public int validateMove(String move) 
     {
-        if ( matcherCastle.reset(move).find() ) { // castling check
-             
-            if ( matcherCastle.group(2) == null ) return validateCastleKingside();
-            else return validateCastleQueenside();
-            
-        } else if ( matcherFull.reset(move).matches() ) { // full coordinate check
-            
-            String from = matcherFull.group(1); // from location
-            String to = matcherFull.group(2); // to location
-            //String promo = matcherFull.group(3); // promo type
-            return validateMove(
-                    convertChessRankFromAlgebraic(from),
-                    convertChessFileFromAlgebraic(from),
-                    convertChessRankFromAlgebraic(to),
-                    convertChessFileFromAlgebraic(to)    );
-            
-        } else if ( matcherDisamb.reset(move).matches() ) {  // disambiguous check
-            
-            String piece = matcherDisamb.group(1); // from piece
-            String loc = matcherDisamb.group(2); // from location
-            String to = matcherDisamb.group(3); // to location
-            
-            List<ChessPiece> matches = this.matchPiece(piece, loc, to);
-            if ( matches.isEmpty() ) return MOVE_ILLEGAL;
-            else if ( matches.size() > 1 ) return AMBIGUOUS_MOVE;
-            ChessPiece p = matches.get(0);
-            
-            return p.validateMoveIn(
-                    convertInRankFromAlgebraic(to),
-                    convertInFileFromAlgebraic(to) );
-
+        MoveTextScanner scanner = MoveScanner;
+        switch ( scanner.scan(move) )
+        {
+            case MoveTextScanner.CASTLE_KINGSIDE:
+                return validateCastleKingside();
+            case MoveTextScanner.CASTLE_QUEENSIDE:
+                return validateCastleQueenside();
+            case MoveTextScanner.COORDINATE:
+                int from = scanner.FromSquare;
+                int to = scanner.ToSquare;
+                return validateMove( Bitboard.rankOf(from) + 1, Bitboard.fileOf(from) + 1,
+                        Bitboard.rankOf(to) + 1, Bitboard.fileOf(to) + 1 );
+            case MoveTextScanner.ALGEBRAIC:
+                long matches = matchPiecesIn(scanner.PieceType, scanner.Location, scanner.ToSquare);
+                if ( matches == 0L ) return MOVE_ILLEGAL;
+                else if ( Bitboard.hasMoreThanOneBit(matches) ) return AMBIGUOUS_MOVE;
+                int square = Bitboard.firstSquare(matches);
+                ChessPiece p = GameBoard[Bitboard.rankOf(square)][Bitboard.fileOf(square)];
+                return p.validateMoveIn( Bitboard.rankOf(scanner.ToSquare), 
+                        Bitboard.fileOf(scanner.ToSquare) );
+            default:
+                return MOVE_ILLEGAL; // unrecognized move
         }
-        
-        return MOVE_ILLEGAL; // unrecognized move
-        
-        /*
-        if ( move.length() < 5 ) 
-            return INVALID_COORDINATE;
-        String fromString = move.substring(0, 2);
-        String toString = move.substring(3, 5);
-        int fromRank = Game.convertChessRankFromAlgebraic(fromString);
-        int fromFile = Game.convertChessFileFromAlgebraic(fromString);
-        int toRank = Game.convertChessRankFromAlgebraic(toString);
-        int toFile = Game.convertChessFileFromAlgebraic(toString);
-        */
-        //return this.validateMove(fromRank, fromFile, toRank, toFile);        
-        
     }
     
     
@@ -918,32 +1353,738 @@ public class Game
      */
     public boolean isInCheck(int color)
     {
-        // get the king
-        ChessPiece king = getKing(color);
-        int kingInRank = king.inRank;
-        int kingInFile = king.inFile;
-        return isInCheck(color, kingInRank, kingInFile);
+        updateCheckInfo(color);
+        return Checkers[color] != 0L;
+    }
+
+    /**
+     * Gets every square attacked by a player's pieces, whether empty or
+     * occupied by either side. Sliding pieces are blocked by any piece
+     * @param color WHITE or BLACK
+     * @return attacked squares
+     */
+    public SquareSet getAttackedSquares(int color)
+    {
+        long occupied = getOccupied();
+        long pieces = ColorBitboards[color];
+        long attacked = 0L;
+        for ( long bb = pieces & TypeBitboards[PAWN_INDEX]; bb != 0L; bb &= bb - 1 )
+            attacked |= Bitboard.PAWN_ATTACKS[color][Bitboard.firstSquare(bb)];
+        for ( long bb = pieces & TypeBitboards[KNIGHT_INDEX]; bb != 0L; bb &= bb - 1 )
+            attacked |= Bitboard.KNIGHT_ATTACKS[Bitboard.firstSquare(bb)];
+        for ( long bb = pieces & (TypeBitboards[BISHOP_INDEX] | TypeBitboards[QUEEN_INDEX]);
+                bb != 0L; bb &= bb - 1 )
+            attacked |= Bitboard.bishopAttacks(Bitboard.firstSquare(bb), occupied);
+        for ( long bb = pieces & (TypeBitboards[ROOK_INDEX] | TypeBitboards[QUEEN_INDEX]);
+                bb != 0L; bb &= bb - 1 )
+            attacked |= Bitboard.rookAttacks(Bitboard.firstSquare(bb), occupied);
+        for ( long bb = pieces & TypeBitboards[KING_INDEX]; bb != 0L; bb &= bb - 1 )
+            attacked |= Bitboard.KING_ATTACKS[Bitboard.firstSquare(bb)];
+        return SquareSet.valueOf(attacked);
     }
     
     /**
-     * Check to see if king would be in check at a coordinate
-     * @param color color of king to examine
-     * @param inRank rank of square to examine
-     * @param inFile file of square to examine
-     * @return true if in check, false if not
+     * Gets the squares of all pieces of either color observing a square
+     * @param chessRank 1-8
+     * @param chessFile 1-8
+     * @return squares of the observing pieces
+     */
+    public SquareSet getObservers(int chessRank, int chessFile)
+    {
+        int square = SquareSet.squareOf(chessRank, chessFile);
+        long occupied = getOccupied();
+        return SquareSet.valueOf( getAttackersIn(square, WHITE, occupied) 
+                | getAttackersIn(square, BLACK, occupied) );
+    }
+    
+    /**
+     * Gets the squares of a player's pieces observing a square
+     * @param chessRank 1-8
+     * @param chessFile 1-8
+     * @param color WHITE or BLACK
+     * @return squares of the observing pieces
+     */
+    public SquareSet getObservers(int chessRank, int chessFile, int color)
+    {
+        int square = SquareSet.squareOf(chessRank, chessFile);
+        return SquareSet.valueOf( getAttackersIn(square, color, getOccupied()) );
+    }
+
+    /**
+     * Gets all pieces of a color attacking a square, as a bitboard
+     * @param square square index, 8*inRank + inFile
+     * @param color color of the attacking pieces
+     * @param occupied bitboard of occupied squares. Sliding attacks are
+     *          blocked by these squares, and only attackers standing on
+     *          these squares are returned
+     * @return bitboard of the attacking pieces
      */
-    private boolean isInCheck(int color, int inRank, int inFile)
+    private long getAttackersIn(int square, int color, long occupied)
     {
+        long pieces = ColorBitboards[color] & occupied;
+        long attackers =
+                  ( Bitboard.KNIGHT_ATTACKS[square] & TypeBitboards[KNIGHT_INDEX] )
+                | ( Bitboard.KING_ATTACKS[square] & TypeBitboards[KING_INDEX] )
+                | ( Bitboard.PAWN_ATTACKS[getOtherColor(color)][square] & TypeBitboards[PAWN_INDEX] );
+
+        // only look along the lines if there are sliding pieces to find
+        long queens = TypeBitboards[QUEEN_INDEX];
+        long diagonalSliders = ( TypeBitboards[BISHOP_INDEX] | queens ) & pieces;
+        if ( diagonalSliders != 0L )
+            attackers |= Bitboard.bishopAttacks(square, occupied) & diagonalSliders;
+        long straightSliders = ( TypeBitboards[ROOK_INDEX] | queens ) & pieces;
+        if ( straightSliders != 0L )
+            attackers |= Bitboard.rookAttacks(square, occupied) & straightSliders;
+        return attackers & pieces;
+    }
+
+    private long getOccupied()
+    { return ColorBitboards[WHITE] | ColorBitboards[BLACK]; }
+
+    private int getKingSquare(int color)
+    {
+        long king = TypeBitboards[KING_INDEX] & ColorBitboards[color];
+        if ( king == 0L )
+            throw new IllegalStateException("King not found!");
+        return Bitboard.firstSquare(king);
+    }
+
+    /**
+     * Finds the pieces checking a king and the pieces pinned to it,
+     * unless already known for the current position
+     * @param color color of the king
+     */
+    private void updateCheckInfo(int color)
+    {
+        if ( isCheckInfoValid[color] )
+            return;
+        int kingSquare = getKingSquare(color);
+        int opponentColor = getOtherColor(color);
+        long occupied = getOccupied();
+        Checkers[color] = getAttackersIn(kingSquare, opponentColor, occupied);
+
+        // enemy sliders lined up with the king, with exactly one own piece between
+        long queens = TypeBitboards[QUEEN_INDEX];
+        long snipers = ColorBitboards[opponentColor]
+                & ( ( Bitboard.BISHOP_ATTACKS[kingSquare] & (TypeBitboards[BISHOP_INDEX] | queens) )
+                  | ( Bitboard.ROOK_ATTACKS[kingSquare] & (TypeBitboards[ROOK_INDEX] | queens) ) );
+        long pinned = 0L;
+        while ( snipers != 0L )
+        {
+            int sniper = Bitboard.firstSquare(snipers);
+            snipers &= snipers - 1;
+            long ray = Bitboard.SQUARES_BETWEEN[kingSquare][sniper];
+            long blockers = ray & occupied;
+            if ( blockers == 0L || Bitboard.hasMoreThanOneBit(blockers)
+                    || (blockers & ColorBitboards[color]) == 0L )
+                continue;
+            pinned |= blockers;
+            PinRays[Bitboard.firstSquare(blockers)] = ray | (1L << sniper);
+        }
+        PinnedPieces[color] = pinned;
+        isCheckInfoValid[color] = true;
+    }
+
+    /**
+     * Checks if moving a piece other than the king would leave its king
+     * in check, by testing against the pins and checks of the position
+     * rather than making a trial move. Not for en passant captures,
+     * which remove a piece from another square.
+     * @param color color of the moving piece
+     * @param from square the piece moves from
+     * @param to square the piece moves to
+     * @return true if the move would leave the king in check
+     */
+    private boolean isMoveIntoCheckIn(int color, int from, int to)
+    {
+        updateCheckInfo(color);
+        long toMask = 1L << to;
+        if ( (PinnedPieces[color] & (1L << from)) != 0L && (PinRays[from] & toMask) == 0L )
+            return true; // leaving the pin
+        long checkers = Checkers[color];
+        if ( checkers == 0L )
+            return false;
+        if ( Bitboard.hasMoreThanOneBit(checkers) )
+            return true; // only the king can escape a double check
+        // capture the checking piece or block it
+        long blocks = Bitboard.SQUARES_BETWEEN[getKingSquare(color)][Bitboard.firstSquare(checkers)];
+        return ( (checkers | blocks) & toMask ) == 0L;
+    }
+
+    /**
+     * Writes all legal moves of the player whose turn it is into a buffer
+     * supplied by the caller. Moves are packed into ints, see PackedMove.
+     * Nothing is allocated, so it is safe to call from tight loops.
+     * @param buffer array to write the moves into, should have room for
+     *          MAX_LEGAL_MOVES moves
+     * @return number of moves written
+     */
+    public int generateLegalMoves(int[] buffer)
+    {
+        int count = 0;
+        long pieces = ColorBitboards[GameWhoseTurn];
+        while ( pieces != 0L )
+        {
+            int from = Bitboard.firstSquare(pieces);
+            pieces &= pieces - 1;
+            count = generateLegalMovesFrom(from, false, buffer, count);
+        }
+        return count;
+    }
+
+    /**
+     * Writes the legal captures and promotions of the player whose turn it
+     * is into a buffer supplied by the caller, like generateLegalMoves(int[]).
+     * For quiescence searches, which only look at moves that change
+     * the material.
+     * @param buffer array to write the moves into, should have room for
+     *          MAX_LEGAL_MOVES moves
+     * @return number of moves written
+     */
+    public int generateLegalCaptures(int[] buffer)
+    {
+        int count = 0;
+        long pieces = ColorBitboards[GameWhoseTurn];
+        while ( pieces != 0L )
+        {
+            int from = Bitboard.firstSquare(pieces);
+            pieces &= pieces - 1;
+            count = generateLegalMovesFrom(from, true, buffer, count);
+        }
+        return count;
+    }
+
+    /**
+     * Works out the material won or lost by a capture if both players keep
+     * recapturing on its square, each with their least valuable piece,
+     * and either may stop when that is better for them. Pieces behind
+     * the capturers join in as the line opens. Pins and checks are
+     * not considered. The board is not changed.
+     * @param move packed move from generateLegalMoves(int[])
+     * @return material won by the moving player, in the units of
+     *          getMaterial(). Negative if the capture loses material
+     */
+    public int getStaticExchange(int move)
+    {
+        int from = PackedMove.getFromSquare(move);
+        int to = PackedMove.getToSquare(move);
+        ChessPiece piece = getPieceOnSquare(from);
+        long occupied = getOccupied() & ~(1L << from);
+        int[] gains = ExchangeGains;
+
+        // the first capture, which is made whether or not it pays
+        ChessPiece victim = getPieceOnSquare(to);
+        gains[0] = ( victim == null ) ? 0 : EXCHANGE_VALUES_BY_INDEX[victim.TypeIndex];
+        int onSquare = EXCHANGE_VALUES_BY_INDEX[piece.TypeIndex];
+        if ( PackedMove.isEnPassant(move) )
+        {   occupied &= ~( 1L << (to + ((piece.Color == WHITE) ? -8 : 8)) );
+            gains[0] = EXCHANGE_VALUES_BY_INDEX[PAWN_INDEX];
+        }
+        if ( PackedMove.isPromotion(move) )
+        {   onSquare = EXCHANGE_VALUES_BY_INDEX[PackedMove.getPromotionIndex(move)];
+            gains[0] += onSquare - EXCHANGE_VALUES_BY_INDEX[PAWN_INDEX];
+        }
+
+        int depth = 0;
+        int side = getOtherColor(piece.Color);
+        while ( true )
+        {
+            long attackers = getAttackersIn(to, side, occupied);
+            if ( attackers == 0L ) break;
+            int typeIndex = PAWN_INDEX;
+            while ( (attackers & TypeBitboards[typeIndex]) == 0L )
+                typeIndex++;
+            long attacker = Long.lowestOneBit(attackers & TypeBitboards[typeIndex]);
+            // the king cannot capture onto a defended square
+            if ( typeIndex == KING_INDEX
+                    && getAttackersIn(to, getOtherColor(side), occupied & ~attacker) != 0L )
+                break;
+            depth++;
+            gains[depth] = onSquare - gains[depth - 1];
+            occupied &= ~attacker;
+            onSquare = EXCHANGE_VALUES_BY_INDEX[typeIndex];
+            side = getOtherColor(side);
+        }
+        // each player only recaptures if it does not lose by it
+        while ( depth > 0 )
+        {   gains[depth - 1] = -Math.max( -gains[depth - 1], gains[depth] );
+            depth--;
+        }
+        return gains[0];
+    }
+
+    /**
+     * Makes a move generated by generateLegalMoves(int[])
+     * @param move packed move
+     * @return returns an integer move Code. You can use isMoveCodeLegal(Code)
+     *         and getMoveCodeText(Code)
+     */
+    public int makePackedMove(int move)
+    {
+        int from = PackedMove.getFromSquare(move);
+        int to = PackedMove.getToSquare(move);
+        return makeMoveIn(Bitboard.rankOf(from), Bitboard.fileOf(from),
+                Bitboard.rankOf(to), Bitboard.fileOf(to),
+                PackedMove.getPromotionType(move) );
+    }
+
+    /**
+     * Plays a move silently, for searches and bulk replays. No listeners
+     * are called, no history is recorded, the timer is not switched and
+     * the game state is not updated, but the board, pieces, player to
+     * move and draw rule positions are. Undo with undoMove().
+     * The move is not validated, it must come from generateLegalMoves(int[])
+     * for the current position. Take back every move played this way
+     * before calling makeMove(), takebackMove() or redo().
+     * @param move packed move
+     */
+    public void doMove(int move)
+    {
+        int from = PackedMove.getFromSquare(move);
+        int to = PackedMove.getToSquare(move);
+        ChessPiece piece = getPieceOnSquare(from);
+        int color = piece.Color;
+        
+        // capture piece, if any
+        int capturedSquare = to;
+        if ( PackedMove.isEnPassant(move) )
+            capturedSquare = to + ( (color == WHITE) ? -8 : 8 );
+        ChessPiece captured = getPieceOnSquare(capturedSquare);
+        
+        pushUndoIn(move, piece, captured);
+        if ( captured != null )
+        {   captured.isActive = false;
+            captured.Status = PIECE_CAPTURED;
+            setSquareIn(captured.inRank, captured.inFile, null);
+        }
+        
+        if ( PackedMove.isCastle(move) )
+        {   // move the rook first, it is found by looking out from the king
+            int rank = Bitboard.rankOf(to);
+            boolean kingside = (move & PackedMove.CASTLE_KINGSIDE) != 0;
+            ChessPiece rook = ((King)piece).getCastlingRook(rank, 
+                    piece.inFile + (kingside ? 1 : -1));
+            UndoRookSquares[UndoCount - 1] = Bitboard.squareOf(rank, rook.inFile);
+            rook.MoveCount++;
+            rook.updatePositionIn(rank, kingside ? 5 : 3);
+        }
+        piece.MoveCount++;
+        piece.updatePositionIn(Bitboard.rankOf(to), Bitboard.fileOf(to));
+        if ( PackedMove.isPromotion(move) )
+        {   // replace the pawn with a new piece
+            piece.isActive = false;
+            piece.Status = PIECE_PROMOTED;
+            setSquareIn(piece.inRank, piece.inFile, null);
+            ChessPiece promotion = addPieceToGame(color, 
+                    getTypeOfIndex(PackedMove.getPromotionIndex(move)));
+            promotion.inRank = piece.inRank;
+            promotion.inFile = piece.inFile;
+            promotion.isActive = true;
+            promotion.Status = PIECE_ACTIVE;
+            setSquareIn(piece.inRank, piece.inFile, promotion);
+        }
         
-        for ( ChessPiece piece : GamePieces )
+        EnPassantSquare = PackedMove.isDoublePawnPush(move) ? (from + to) / 2 : NO_SQUARE;
+        GameWhoseTurn = getOtherColor(color);
+        GameTurnCount++;
+        pushPositionIn(GameWhoseTurn, piece.TypeIndex == PAWN_INDEX || captured != null);
+    }
+
+    /**
+     * Takes back the last move played with doMove(int)
+     * @return false if there is no move to take back
+     */
+    public boolean undoMove()
+    {
+        if ( UndoCount == 0 ) return false;
+        UndoCount--;
+        int move = UndoMoves[UndoCount];
+        ChessPiece piece = UndoMovedPieces[UndoCount];
+        ChessPiece captured = UndoCapturedPieces[UndoCount];
+        UndoMovedPieces[UndoCount] = null;
+        UndoCapturedPieces[UndoCount] = null;
+        
+        int from = PackedMove.getFromSquare(move);
+        int to = PackedMove.getToSquare(move);
+        if ( PackedMove.isPromotion(move) )
+        {   // remove the promoted piece, added last by doMove()
+            setSquareIn(Bitboard.rankOf(to), Bitboard.fileOf(to), null);
+            GamePieces.remove( GamePieces.size() - 1 );
+            piece.isActive = true;
+            piece.Status = PIECE_ACTIVE;
+            setSquareIn(Bitboard.rankOf(to), Bitboard.fileOf(to), piece);
+        } else if ( PackedMove.isCastle(move) ) {
+            int rank = Bitboard.rankOf(to);
+            boolean kingside = (move & PackedMove.CASTLE_KINGSIDE) != 0;
+            ChessPiece rook = GameBoard[rank][kingside ? 5 : 3];
+            rook.MoveCount--;
+            rook.updatePositionIn(rank, Bitboard.fileOf(UndoRookSquares[UndoCount]));
+        }
+        piece.updatePositionIn(Bitboard.rankOf(from), Bitboard.fileOf(from));
+        piece.MoveCount--;
+        
+        // restore any captured piece
+        if ( captured != null )
+        {   captured.isActive = true;
+            captured.Status = PIECE_ACTIVE;
+            setSquareIn(captured.inRank, captured.inFile, captured);
+        }
+        
+        EnPassantSquare = UndoEnPassantSquares[UndoCount];
+        GameWhoseTurn = piece.Color;
+        GameTurnCount--;
+        popPosition();
+        return true;
+    }
+    
+    /**
+     * Counts the positions at the end of every legal move sequence of a
+     * given length, to test and time the move generator. Uses doMove()
+     * and undoMove(), so the position is left as it was
+     * @param depth number of plies
+     * @return number of leaf positions, 1 if depth is 0
+     */
+    public long perft(int depth)
+    {
+        if ( depth <= 0 ) return 1;
+        return perftIn(depth, new int[depth][MAX_LEGAL_MOVES]);
+    }
+    
+    /**
+     * Counts perft(depth - 1) after each legal move, to find where a
+     * move generator goes wrong
+     * @param depth number of plies, at least 1
+     * @return leaf count by move in coordinate notation ("e2e4", "e7e8q"),
+     *          in generation order
+     */
+    public Map<String, Long> divide(int depth)
+    {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        if ( depth <= 0 ) return counts;
+        int[][] buffers = new int[depth][MAX_LEGAL_MOVES];
+        int[] moves = buffers[depth - 1];
+        int count = generateLegalMoves(moves);
+        for ( int i = 0; i < count; i++ )
+        {   doMove(moves[i]);
+            counts.put( PackedMove.toString(moves[i]), 
+                    ( depth == 1 ) ? 1L : perftIn(depth - 1, buffers) );
+            undoMove();
+        }
+        return counts;
+    }
+    
+    // buffers[d - 1] holds the moves generated with d plies to go
+    private long perftIn(int depth, int[][] buffers)
+    {
+        int[] moves = buffers[depth - 1];
+        int count = generateLegalMoves(moves);
+        if ( depth == 1 ) return count;
+        long nodes = 0;
+        for ( int i = 0; i < count; i++ )
+        {   doMove(moves[i]);
+            nodes += perftIn(depth - 1, buffers);
+            undoMove();
+        }
+        return nodes;
+    }
+    
+    private void pushUndoIn(int move, ChessPiece moved, ChessPiece captured)
+    {
+        if ( UndoCount == UndoMoves.length )
+        {   UndoMoves = Arrays.copyOf(UndoMoves, 2*UndoCount);
+            UndoMovedPieces = Arrays.copyOf(UndoMovedPieces, 2*UndoCount);
+            UndoCapturedPieces = Arrays.copyOf(UndoCapturedPieces, 2*UndoCount);
+            UndoEnPassantSquares = Arrays.copyOf(UndoEnPassantSquares, 2*UndoCount);
+            UndoRookSquares = Arrays.copyOf(UndoRookSquares, 2*UndoCount);
+        }
+        UndoMoves[UndoCount] = move;
+        UndoMovedPieces[UndoCount] = moved;
+        UndoCapturedPieces[UndoCount] = captured;
+        UndoEnPassantSquares[UndoCount] = EnPassantSquare;
+        UndoRookSquares[UndoCount] = NO_SQUARE;
+        UndoCount++;
+    }
+
+    /**
+     * Adds the legal moves of the piece on a square to buffer
+     * @param from square of the piece, 8*inRank + inFile
+     * @param capturesOnly if true, only captures and promotions are added
+     * @param buffer array to write the moves into
+     * @param count number of moves already in the buffer
+     * @return new number of moves in the buffer
+     */
+    private int generateLegalMovesFrom(int from, boolean capturesOnly, int[] buffer, int count)
+    {
+        ChessPiece piece = getPieceOnSquare(from);
+        int color = piece.Color;
+        long occupied = getOccupied();
+        long targets;
+        switch ( piece.TypeIndex )
+        {
+            case PAWN_INDEX:
+                return generatePawnMovesFrom(piece, from, capturesOnly, buffer, count);
+            case KNIGHT_INDEX:
+                targets = Bitboard.KNIGHT_ATTACKS[from];
+                break;
+            case BISHOP_INDEX:
+                targets = Bitboard.bishopAttacks(from, occupied);
+                break;
+            case ROOK_INDEX:
+                targets = Bitboard.rookAttacks(from, occupied);
+                break;
+            case QUEEN_INDEX:
+                targets = Bitboard.bishopAttacks(from, occupied)
+                        | Bitboard.rookAttacks(from, occupied);
+                break;
+            default: // KING_INDEX
+                targets = Bitboard.KING_ATTACKS[from];
+                if ( !capturesOnly )
+                    count = generateCastlesFrom((King)piece, from, buffer, count);
+        }
+        long enemies = ColorBitboards[getOtherColor(color)];
+        targets &= capturesOnly ? enemies : ~ColorBitboards[color];
+
+        boolean isKing = piece.TypeIndex == KING_INDEX;
+        while ( targets != 0L )
         {
-            // skip if color matches kings color, or if inactive
-            if ( !piece.isActive || piece.getColor() == color )
+            int to = Bitboard.firstSquare(targets);
+            targets &= targets - 1;
+            boolean isInCheck = isKing ? isKingAttackedAfterIn(color, from, to, to, to)
+                    : isMoveIntoCheckIn(color, from, to);
+            if ( isInCheck )
                 continue;
-            
-            if ( piece.isObservingIn(inRank, inFile) == PIECE_IS_OBSERVING )
+            int flags = ( (enemies & (1L << to)) != 0L ) ? PackedMove.CAPTURE : 0;
+            buffer[count++] = PackedMove.pack(from, to, 0, flags);
+        }
+        return count;
+    }
+
+    private int generatePawnMovesFrom(ChessPiece pawn, int from, boolean capturesOnly, 
+            int[] buffer, int count)
+    {
+        int color = pawn.Color;
+        long occupied = getOccupied();
+        int step = (color == WHITE) ? 8 : -8;
+        int fromRank = Bitboard.rankOf(from);
+
+        // moving forward, only to promote if capturesOnly
+        int to = from + step;
+        if ( to >= 0 && to < Bitboard.NUM_OF_SQUARES && (occupied & (1L << to)) == 0L 
+                && ( !capturesOnly || fromRank == ((color == WHITE) ? 6 : 1) ) )
+        {
+            if ( !isMoveIntoCheckIn(color, from, to) )
+                count = addPawnMovesIn(color, from, to, 0, buffer, count);
+
+            // moving forward two squares
+            int to2 = to + step;
+            if ( pawn.MoveCount == 0 && fromRank == ((color == WHITE) ? 1 : 6)
+                    && (occupied & (1L << to2)) == 0L
+                    && !isMoveIntoCheckIn(color, from, to2) )
+                buffer[count++] = PackedMove.pack(from, to2, 0, PackedMove.DOUBLE_PAWN_PUSH);
+        }
+
+        // capturing a piece
+        long attacks = Bitboard.PAWN_ATTACKS[color][from];
+        long targets = attacks & ColorBitboards[getOtherColor(color)];
+        while ( targets != 0L )
+        {
+            to = Bitboard.firstSquare(targets);
+            targets &= targets - 1;
+            if ( !isMoveIntoCheckIn(color, from, to) )
+                count = addPawnMovesIn(color, from, to, PackedMove.CAPTURE, buffer, count);
+        }
+
+        // en passant, capturing the pawn which just skipped the square
+        if ( EnPassantSquare != NO_SQUARE && (attacks & ~occupied & (1L << EnPassantSquare)) != 0L
+                && fromRank == ((color == WHITE) ? 4 : 3) )
+        {
+            int victimSquare = EnPassantSquare - step;
+            ChessPiece victim = getPieceOnSquare(victimSquare);
+            if ( victim != null && victim.Color != color && victim.TypeIndex == PAWN_INDEX
+                    && !isKingAttackedAfterIn(color, from, EnPassantSquare, victimSquare,
+                            getKingSquare(color)) )
+                buffer[count++] = PackedMove.pack(from, EnPassantSquare, 0,
+                        PackedMove.CAPTURE | PackedMove.EN_PASSANT);
+        }
+        return count;
+    }
+
+    // adds a pawn move, or one move per promotion type if it reaches the last rank
+    private int addPawnMovesIn(int color, int from, int to, int flags, int[] buffer, int count)
+    {
+        if ( Bitboard.rankOf(to) != ((color == WHITE) ? 7 : 0) )
+        {   buffer[count++] = PackedMove.pack(from, to, 0, flags);
+            return count;
+        }
+        buffer[count++] = PackedMove.pack(from, to, QUEEN_INDEX, flags);
+        buffer[count++] = PackedMove.pack(from, to, ROOK_INDEX, flags);
+        buffer[count++] = PackedMove.pack(from, to, BISHOP_INDEX, flags);
+        buffer[count++] = PackedMove.pack(from, to, KNIGHT_INDEX, flags);
+        return count;
+    }
+
+    private int generateCastlesFrom(King king, int from, int[] buffer, int count)
+    {
+        // only castles from the standard king starting position, as getCandidateMoves()
+        if ( king.MoveCount != 0 || Bitboard.fileOf(from) != 4 )
+            return count;
+        int rank = Bitboard.rankOf(from);
+        if ( king.validateMoveIn(rank, 6) == MOVE_LEGAL_CASTLE_KINGSIDE )
+            buffer[count++] = PackedMove.pack(from, Bitboard.squareOf(rank, 6), 0,
+                    PackedMove.CASTLE_KINGSIDE);
+        if ( king.validateMoveIn(rank, 2) == MOVE_LEGAL_CASTLE_QUEENSIDE )
+            buffer[count++] = PackedMove.pack(from, Bitboard.squareOf(rank, 2), 0,
+                    PackedMove.CASTLE_QUEENSIDE);
+        return count;
+    }
+
+    /**
+     * Checks if a king would be attacked after a move, using the bitboards
+     * only. The board is not changed.
+     * @param color color of the moving player
+     * @param from square the piece moves from
+     * @param to square the piece moves to
+     * @param capturedSquare square of the captured piece. same as to,
+     *          except for en passant
+     * @param kingSquare square of the king after the move
+     * @return true if the move would leave the king in check
+     */
+    private boolean isKingAttackedAfterIn(int color, int from, int to, int capturedSquare, int kingSquare)
+    {
+        long captured = 1L << capturedSquare;
+        long occupied = ( getOccupied() & ~(1L << from) & ~captured ) | (1L << to);
+        return ( getAttackersIn(kingSquare, getOtherColor(color), occupied) & ~captured ) != 0L;
+    }
+
+    /**
+     * Sets the en passant square after a piece has moved
+     * @param moved the piece moved
+     * @param fromInRank rank the piece moved from
+     * @param toInRank rank the piece moved to
+     * @param toInFile file the piece moved to
+     */
+    private void setEnPassantSquareIn(ChessPiece moved, int fromInRank, int toInRank, int toInFile)
+    {
+        if ( moved.Type == PAWN && abs(toInRank - fromInRank) == 2 )
+            EnPassantSquare = Bitboard.squareOf( (fromInRank + toInRank)/2, toInFile );
+        else
+            EnPassantSquare = NO_SQUARE;
+    }
+
+    // sets the en passant square from the last move in the history,
+    // or to the setup's square when there is none
+    private void updateEnPassantSquare()
+    {
+        RecordOfMove lastMove = getLastMoveRecord();
+        if ( lastMove == null )
+            EnPassantSquare = StartingEnPassantSquare;
+        else
+            setEnPassantSquareIn(lastMove.PieceMoved,
+                    lastMove.fromInRank, lastMove.toInRank, lastMove.toInFile);
+    }
+    
+    /**
+     * Checks if a player has at least one legal move, whether or not it
+     * is their turn. Stops at the first legal move found, and tries the
+     * pieces that are cheapest to test first. Nothing is allocated.
+     * @param color color of the player
+     * @return true if the player can move
+     */
+    private boolean hasAnyLegalMoveIn(int color)
+    {
+        if ( isLegalMovesValidIn(color) )
+        {   for ( long pieces = ColorBitboards[color]; pieces != 0L; pieces &= pieces - 1 )
+                if ( LegalTargets[Bitboard.firstSquare(pieces)] != 0L )
+                    return true;
+            return false;
+        }
+        updateCheckInfo(color);
+        long own = ColorBitboards[color];
+        long occupied = getOccupied();
+        
+        // only the king can escape a double check
+        if ( !Bitboard.hasMoreThanOneBit(Checkers[color]) )
+        {
+            for ( long knights = own & TypeBitboards[KNIGHT_INDEX]; knights != 0L; knights &= knights - 1 )
+            {   int from = Bitboard.firstSquare(knights);
+                if ( hasLegalTargetIn(color, from, Bitboard.KNIGHT_ATTACKS[from] & ~own) )
+                    return true;
+            }
+            for ( long pawns = own & TypeBitboards[PAWN_INDEX]; pawns != 0L; pawns &= pawns - 1 )
+            {   int from = Bitboard.firstSquare(pawns);
+                if ( generatePawnMovesFrom(getPieceOnSquare(from), from, false, ScratchMoves, 0) != 0 )
+                    return true;
+            }
+            long queens = TypeBitboards[QUEEN_INDEX];
+            for ( long sliders = own & (TypeBitboards[BISHOP_INDEX] | queens); sliders != 0L; sliders &= sliders - 1 )
+            {   int from = Bitboard.firstSquare(sliders);
+                if ( hasLegalTargetIn(color, from, Bitboard.bishopAttacks(from, occupied) & ~own) )
+                    return true;
+            }
+            for ( long sliders = own & (TypeBitboards[ROOK_INDEX] | queens); sliders != 0L; sliders &= sliders - 1 )
+            {   int from = Bitboard.firstSquare(sliders);
+                if ( hasLegalTargetIn(color, from, Bitboard.rookAttacks(from, occupied) & ~own) )
+                    return true;
+            }
+        }
+        
+        // castling is never the only legal move, the king can step towards the rook
+        int kingSquare = getKingSquare(color);
+        for ( long targets = Bitboard.KING_ATTACKS[kingSquare] & ~own; targets != 0L; targets &= targets - 1 )
+        {   int to = Bitboard.firstSquare(targets);
+            if ( !isKingAttackedAfterIn(color, kingSquare, to, to, to) )
+                return true;
+        }
+        return false;
+    }
+    
+    private void invalidateLegalMoves()
+    {
+        LegalMovesColor = -1;
+        ValidatedPiece = null;
+    }
+    
+    private boolean isLegalMovesValidIn(int color)
+    {   return LegalMovesColor == color && color == GameWhoseTurn 
+                && LegalMovesEnPassant == EnPassantSquare;
+    }
+    
+    /**
+     * Gets the legal targets of a piece of the side to move, building
+     * the legal move table for the whole position if needed
+     * @param from square of the piece
+     * @return bitboard of target squares. Castles are the king moving two squares
+     */
+    private long getLegalTargetsIn(int from)
+    {
+        if ( !isLegalMovesValidIn(GameWhoseTurn) )
+            buildLegalMoves();
+        return LegalTargets[from];
+    }
+    
+    private void buildLegalMoves()
+    {
+        LegalMovesColor = -1;
+        Arrays.fill(LegalTargets, 0L);
+        for ( long pieces = ColorBitboards[GameWhoseTurn]; pieces != 0L; pieces &= pieces - 1 )
+        {
+            int from = Bitboard.firstSquare(pieces);
+            int count = generateLegalMovesFrom(from, false, ScratchMoves, 0);
+            long targets = 0L;
+            for ( int i = 0; i < count; i++ )
+                targets |= 1L << PackedMove.getToSquare(ScratchMoves[i]);
+            LegalTargets[from] = targets;
+        }
+        LegalMovesColor = GameWhoseTurn;
+        LegalMovesEnPassant = EnPassantSquare;
+    }
+    
+    // true if a piece other than the king can move to any of the target squares
+    private boolean hasLegalTargetIn(int color, int from, long targets)
+    {
+        for ( ; targets != 0L; targets &= targets - 1 )
+            if ( !isMoveIntoCheckIn(color, from, Bitboard.firstSquare(targets)) )
                 return true;
-        }
         return false;
     }
     
@@ -959,19 +2100,7 @@ public class Game
         } else {
         
             // check for stalemate
-            boolean playerHasValidMove = false;
-            for ( ChessPiece piece : GamePieces )
-            {
-                if ( piece.getColor() != color )
-                    continue;
-                if ( piece.hasValidMove() )
-                {
-                    playerHasValidMove = true;
-                    break;
-                }
-            }
-            
-            if ( !playerHasValidMove )
+            if ( !hasAnyLegalMoveIn(color) )
                 return PLAYER_IN_STALEMATE;
             
         }
@@ -1144,19 +2273,33 @@ public class Game
     {
         if ( GameHistory != null && !GameHistory.isEmpty() )
             GameHistory.clear();
+        PositionCount = 0;
+        SharedPositions = null;
+        SharedPositionCount = 0;
+        Arrays.fill(UndoMovedPieces, 0, UndoCount, null);
+        Arrays.fill(UndoCapturedPieces, 0, UndoCount, null);
+        UndoCount = 0;
     }
     private void clearBoard() // clear game board
     {
         for (int i = 0; i < BOARD_NUMBER_RANKS; i++)
             for (int j = 0; j < BOARD_NUMBER_FILES; j++)
                 GameBoard[i][j] = null;
+        for (int i = 0; i < ColorBitboards.length; i++)
+            ColorBitboards[i] = 0L;
+        for (int i = 0; i < TypeBitboards.length; i++)
+            TypeBitboards[i] = 0L;
+        PieceHash = 0L;
+        Material[WHITE] = 0;
+        Material[BLACK] = 0;
+        isCheckInfoValid[WHITE] = false;
+        isCheckInfoValid[BLACK] = false;
+        invalidateLegalMoves();
     }
     private void clearPieces()
     {
         if ( GamePieces != null && !GamePieces.isEmpty() )
             GamePieces.clear();
-        WhiteKingIndex = -1;
-        BlackKingIndex = -1;
     }
     private void resetGameVariables()
     {
@@ -1169,6 +2312,7 @@ public class Game
         GameState = STATUS_WHITES_TURN;
         GameWhiteTimeLeft = StartingMinutes*60;
         GameBlackTimeLeft = StartingMinutes*60;
+        EnPassantSquare = StartingEnPassantSquare = NO_SQUARE;
     }
     // ********** END SETUP HELPERS ***************
     
@@ -1208,69 +2352,14 @@ public class Game
      */
     private boolean cannotEscapeCheck(int color)
     {
-        // get the king
-        ChessPiece king = getKing(color);
-        int kingRank = king.inRank;
-        int kingFile = king.inFile;
-        
         // get checking piece(s)
-        ChessPiece checkingPiece = null;
-        boolean doubleCheck = false;
-
-        for( ChessPiece piece : GamePieces )
-        {
-            if ( !piece.isActive || piece.Color == color ) // skip is inactive or same color
-                continue;
-            if ( piece.isObservingIn(kingRank, kingFile) == PIECE_IS_OBSERVING )
-            {
-                if ( checkingPiece == null )
-                {
-                    checkingPiece = piece;  // grab checking piece
-                } else {
-                    // it is double check
-                    doubleCheck = true;
-                    break;
-                }
-            }
-        }
-        
-        if ( checkingPiece == null )
+        updateCheckInfo(color);
+        if ( Checkers[color] == 0L )
             return false;
         
-        if ( !doubleCheck )
-        {
-            // if not double check, check for blocks or captures
-            int cInRank = checkingPiece.inRank;
-            int cInFile = checkingPiece.inFile;
-            List<Square> interveningSquares 
-                    = getInterveningSquares(
-                            kingRank, kingFile, cInRank, cInFile );
-            
-            // get intervening squares
-            interveningSquares.add( new Square(cInRank, cInFile) );
-            
-            // check for odd case when en passant saves king from checkmage
-            if ( checkingPiece.getType() == PAWN && checkingPiece.MoveCount == 1 
-                && ( ( color == WHITE && checkingPiece.inRank == 4 ) 
-                    || ( color == BLACK && checkingPiece.inRank == 3 ) ) )
-            {
-                int enPassantInRank = (color == WHITE) ? 5 : 2;
-                if ( isValidInCoord(enPassantInRank,cInFile) )
-                    interveningSquares.add( new Square(enPassantInRank,cInFile) );
-            }
-            
-            // check all pieces for captures or blocks
-            for( ChessPiece piece : GamePieces )
-            {
-                if ( !piece.isActive || piece.Color != color ) // skip is inactive or same color
-                    continue;
-                for (Square square : interveningSquares )
-                    if ( isMoveCodeLegal(piece.validateMove(square)) )
-                        return false;
-            }
-        }
-        //check for king moves
-        return !king.hasValidMove();
+        // captures, blocks and king moves are all found by the
+        // same search, which stops at the first one
+        return !hasAnyLegalMoveIn(color);
     }
     
     /**
@@ -1330,35 +2419,56 @@ public class Game
         return newPiece;
     }
     
+    /**
+     * Places a piece on a square, or clears the square if piece is null.
+     * All writes to GameBoard go through here to keep the bitboards in sync.
+     * Does not update the position stored in the piece.
+     */
+    private void setSquareIn(int inRank, int inFile, ChessPiece piece)
+    {
+        int square = Bitboard.squareOf(inRank, inFile);
+        long mask = 1L << square;
+        ChessPiece occupant = GameBoard[inRank][inFile];
+        if ( occupant != null )
+        {   ColorBitboards[occupant.Color] &= ~mask;
+            TypeBitboards[occupant.TypeIndex] &= ~mask;
+            PieceHash ^= Zobrist.PIECE_KEYS[occupant.Color][occupant.TypeIndex][square];
+            Material[occupant.Color] -= VALUES_BY_INDEX[occupant.TypeIndex];
+        }
+
+        GameBoard[inRank][inFile] = piece;
+        if ( piece != null )
+        {   ColorBitboards[piece.Color] |= mask;
+            TypeBitboards[piece.TypeIndex] |= mask;
+            PieceHash ^= Zobrist.PIECE_KEYS[piece.Color][piece.TypeIndex][square];
+            Material[piece.Color] += VALUES_BY_INDEX[piece.TypeIndex];
+        }
+        isCheckInfoValid[WHITE] = false;
+        isCheckInfoValid[BLACK] = false;
+        invalidateLegalMoves();
+    }
+
+    private ChessPiece getPieceOnSquare(int square)
+    { return GameBoard[Bitboard.rankOf(square)][Bitboard.fileOf(square)]; }
+
     private ChessPiece getKing()
     { return getKing(GameWhoseTurn); }
     
     private ChessPiece getKing(int color)
     {
-        int index = getKingIndex(color);
-        if (index == -1)
+        King king = findKingIn(color);
+        if (king == null)
             throw new IllegalStateException("King not found!");
-        return GamePieces.get(index);
+        return king;
     }
     
-    private int getKingIndex(int color)
+    // the king on the board, or null
+    private King findKingIn(int color)
     {
-        int kingIndex = (color == WHITE) ? WhiteKingIndex : BlackKingIndex;
-        if ( kingIndex != -1 ) 
-            return kingIndex;
-        
-        
-        for (int i = 0; i < GamePieces.size(); i++ )
-            if ( GamePieces.get(i).getType() == KING
-                    && GamePieces.get(i).getColor() == color )
-            {
-                if ( color == WHITE)
-                    WhiteKingIndex = i;
-                else
-                    BlackKingIndex = i;
-                return i;
-            }
-        return -1;
+        long king = ColorBitboards[color] & TypeBitboards[KING_INDEX];
+        if ( king == 0L ) 
+            return null;
+        return (King)getPieceOnSquare( Bitboard.firstSquare(king) );
     }
     
     
@@ -1396,7 +2506,7 @@ public class Game
     private static int convertChessFileFromInFile(int inFile)
     {   return inFile + 1; }
     
-    private static String convertAlgebraicFromIn(int inRank, int inFile)
+    static String convertAlgebraicFromIn(int inRank, int inFile)
     {   return ((char) (inFile+97)) + String.valueOf(inRank + 1);     }
     
     public static String convertAlgebraicFromChess(int rank, int file)
@@ -1412,6 +2522,27 @@ public class Game
     
     public static int getSquareColor(int rank, int file) 
     { return (rank+file)%2; }
+
+    public static int getOtherColor(int color)
+    { return ( color == WHITE ) ? BLACK : WHITE; }
+
+    static char getTypeOfIndex(int typeIndex)
+    { return TYPES_BY_INDEX[typeIndex]; }
+
+    private static int getTypeIndex(char type)
+    {
+        switch (type)
+        {
+            case PAWN:   return PAWN_INDEX;
+            case KNIGHT: return KNIGHT_INDEX;
+            case BISHOP: return BISHOP_INDEX;
+            case ROOK:   return ROOK_INDEX;
+            case QUEEN:  return QUEEN_INDEX;
+            case KING:   return KING_INDEX;
+            default:
+                throw new IllegalArgumentException("Invalid piece type argument");
+        }
+    }
     
     public static boolean isMoveCodeLegal(int code)
     {   return code == MOVE_LEGAL || code == MOVE_LEGAL_EN_PASSANT
@@ -1638,32 +2769,30 @@ public class Game
         return GameBoard[r][f];
     }
 
+    /**
+     * Gets the type of the piece on a square, for code working with
+     * packed moves
+     * @param square 8*inRank + inFile, as in PackedMove
+     * @return PAWN, KNIGHT, BISHOP, ROOK, QUEEN or KING, or ' ' if the
+     *          square is empty
+     */
+    public char getTypeOnSquare(int square)
+    {
+        ChessPiece piece = getPieceOnSquare(square);
+        return ( piece == null ) ? ' ' : piece.getType();
+    }
+
     private boolean drawByInsufficientMaterial()
     {
-        int wBishopCount = 0;   // bishop counters
-        int bBishopCount = 0;
-        int wKnightCount = 0;   // bishop counters
-        int bKnightCount = 0;
-        for (ChessPiece piece : GamePieces )  // scan all pieces
-        {
-            if (piece.isActive == false) continue;  // skip inactive pieces
-            if (piece.Type == KING) continue; // skip the kings
-            if (piece.Type == QUEEN || piece.Type == ROOK || piece.Type == PAWN )
-                return false;   // any of these pieces active means its not a draw
-            
-            // count bishops
-            if (piece.Type == BISHOP)
-            {
-                if ( piece.getColor() == WHITE ) wBishopCount++;
-                else bBishopCount++;
-            }
-            // count knights
-            if (piece.Type == KNIGHT)
-            {
-                if ( piece.getColor() == WHITE ) wKnightCount++;
-                else bKnightCount++;
-            }
-        }
+        // any queen, rook or pawn means its not a draw
+        if ( (TypeBitboards[QUEEN_INDEX] | TypeBitboards[ROOK_INDEX] 
+                | TypeBitboards[PAWN_INDEX]) != 0L )
+            return false;
+        
+        int wBishopCount = getPieceCountIn(WHITE, BISHOP_INDEX);   // bishop counters
+        int bBishopCount = getPieceCountIn(BLACK, BISHOP_INDEX);
+        int wKnightCount = getPieceCountIn(WHITE, KNIGHT_INDEX);   // knight counters
+        int bKnightCount = getPieceCountIn(BLACK, KNIGHT_INDEX);
         
         // minor pieces are all counted
         if ( wBishopCount >= 2 || bBishopCount >= 2 ) return false; // if 2 bishops found no draw
@@ -1683,16 +2812,16 @@ public class Game
         
         // move the piece back
         ChessPiece moved = move.PieceMoved;  // get the moved piece
-        GameBoard[move.fromInRank][move.fromInFile] = null; // for weird chess960 castles
+        setSquareIn(move.fromInRank, move.fromInFile, null); // for weird chess960 castles
         moved.setPositionIn(move.fromInRank, move.fromInFile );
         moved.MoveCount--; // take away its move count
-        GameBoard[move.toInRank][move.toInFile] = null;
+        setSquareIn(move.toInRank, move.toInFile, null);
 
         ChessPiece promo = move.PiecePromoted;  // deactive any promoted piece
         if ( promo != null )
         {   promo.isActive = false;
             promo.Status = PIECE_NOT_ACTIVE;
-            GameBoard[promo.inRank][promo.inFile] = null;
+            setSquareIn(promo.inRank, promo.inFile, null);
             promo.updateListeners();
         }
         
@@ -1703,11 +2832,13 @@ public class Game
 
         ChessPiece castled = move.RookCastled; // return any castled rooks
         if ( castled != null )
-        {   GameBoard[castled.inRank][castled.inFile] = null;
+        {   setSquareIn(castled.inRank, castled.inFile, null);
             castled.setPositionIn(castled.StartInRank, castled.StartInFile );
             castled.MoveCount--;
         }
         
+        updateEnPassantSquare();
+        if ( PositionCount > 0 ) popPosition();
         isGameActive = true;
         GameWhoseTurn = ( GameWhoseTurn == WHITE ) ? BLACK : WHITE;
         GameState = ( GameWhoseTurn == WHITE ) ? STATUS_WHITES_TURN : STATUS_BLACKS_TURN;
@@ -1744,8 +2875,23 @@ public class Game
         } else {    // normal move
             move.PieceMoved.updateChessPieceIn(move.toInRank, move.toInFile);
         }
+        
+        ChessPiece promo = move.PiecePromoted; // replace the pawn with its promoted piece
+        if ( promo != null )
+        {   ChessPiece pawn = move.PieceMoved;
+            pawn.isActive = false;
+            pawn.Status = PIECE_PROMOTED;
+            setSquareIn(move.toInRank, move.toInFile, null);
+            promo.setPositionIn(move.toInRank, move.toInFile);
+            if ( pawn.PieceListeners != null )
+                for ( PieceListener listener : pawn.PieceListeners )
+                    listener.onPromote(pawn, promo);
+        }
         // remove the future move and put it in history
         GameHistory.add( move );
+        updateEnPassantSquare();
+        pushPositionIn( getOtherColor(GameWhoseTurn),
+                move.PieceMoved.getType() == PAWN || move.PieceCaptured != null );
         
         isGameActive = !(move.Checkmate) && !(move.Stalemate);
         GameWhoseTurn = ( GameWhoseTurn == WHITE ) ? BLACK : WHITE;
@@ -1757,42 +2903,72 @@ public class Game
     }
 
     private boolean drawFiftyMoves()
-    {
-        if (GameHistory.size() < 100) return false; // TODO: check initial halfMoves if loaded from FEN
-        for (int i = 1; i <= 100; i++)
-        {
-            RecordOfMove move = GameHistory.get( GameHistory.size() - i );
-            if ( move.PieceMoved.getType() == PAWN || move.PieceCaptured != null )
-                return false;
-        }
-        return true;  
-    }
+    { return getHalfMoveClock() >= 100; }
     
     
 
     private boolean drawThreefoldRepetition()
     {
-        Game copy = new Game(this);
-        String currentBoardSig = copy.getBoardPositionSignature();
-        int currentPlayer = copy.GameWhoseTurn;
+        if ( PositionCount == 0 ) return false;
+        int current = PositionCount - 1;
+        long currentHash = PositionHashes[current];
+        // pawn moves or captures essentially resets the possible board positions
+        int oldest = Math.max(0, current - HalfMoveClocks[current]);
         int repeats = 1;
-        //System.out.println("CUR: " + currentBoard); //DEBUG
         
-        while ( copy.takebackMove() )  
+        // only positions with the same player to move can repeat
+        for ( int i = current - 2; i >= oldest; i -= 2 )
         {
-            RecordOfMove move = copy.GameFuture.get( copy.GameFuture.size() - 1 ); // get last move
-            // pawn moves or captures essentially resets the possible board positions
-            if ( move.PieceMoved.getType() == PAWN || move.PieceCaptured != null ) return false;
-            if ( copy.GameWhoseTurn != currentPlayer ) continue;
-            
-            String compareBoard = copy.getBoardPositionSignature();
-            //System.out.println("SIG: " + compareBoard); //DEBUG
-            if ( currentBoardSig.equals(compareBoard) ) repeats++;
+            if ( PositionHashes[i] == currentHash ) repeats++;
             if ( repeats >= 3 ) return true;
         }
         return false;
     }
 
+    /**
+     * Checks if the current position has been seen before since the last
+     * pawn move or capture. Searches treat a single repetition as a draw,
+     * since the side that repeats could repeat again.
+     * @return true if the position occurred before
+     */
+    public boolean isRepetition()
+    {
+        if ( PositionCount == 0 ) return false;
+        int current = PositionCount - 1;
+        long currentHash = PositionHashes[current];
+        int oldest = Math.max(0, current - HalfMoveClocks[current]);
+        for ( int i = current - 2; i >= oldest; i -= 2 )
+            if ( PositionHashes[i] == currentHash ) return true;
+        return false;
+    }
+
+    /**
+     * Records the position after a move, or the starting position
+     * @param playerToMove color of the player to move in the position
+     * @param resetsClock true after a pawn move or capture
+     */
+    private void pushPositionIn(int playerToMove, boolean resetsClock)
+    {
+        if ( PositionCount == PositionHashes.length )
+        {   PositionHashes = Arrays.copyOf(PositionHashes, 2*PositionCount);
+            HalfMoveClocks = Arrays.copyOf(HalfMoveClocks, 2*PositionCount);
+        }
+        PositionHashes[PositionCount] = getPositionHashIn(playerToMove);
+        HalfMoveClocks[PositionCount] = ( resetsClock || PositionCount == 0 ) 
+                ? 0 : HalfMoveClocks[PositionCount - 1] + 1;
+        PositionCount++;
+    }
+
+    // forgets the last position, and stops sharing it with snapshots
+    private void popPosition()
+    {
+        PositionCount--;
+        if ( SharedPositionCount > PositionCount )
+        {   SharedPositions = SharedPositions.Previous;
+            SharedPositionCount--;
+        }
+    }
+
     /**
      * creates a unique string based on the board position,
      * according to threefold repetition rules
@@ -1853,6 +3029,33 @@ public class Game
     private char getEPSignature()
     { return getEpFEN().charAt(0); }
 
+    /**
+     * Gets a 64 bit Zobrist hash of the position. Covers the pieces on
+     * the board, the player to move, castling rights and the en passant
+     * square. Equal positions have equal hashes, in this game or any
+     * other, so it can be used as a key for caches and repetition checks.
+     * @return position hash
+     */
+    public long getPositionHash()
+    { return getPositionHashIn(GameWhoseTurn); }
+
+    private long getPositionHashIn(int playerToMove)
+    {
+        long hash = PieceHash;
+        if ( playerToMove == BLACK )
+            hash ^= Zobrist.SIDE_KEY;
+        for ( int color = BLACK; color <= WHITE; color++ )
+        {   int rights = getCastlingRightsIn(color);
+            if ( (rights & CASTLE_KINGSIDE) != 0 )
+                hash ^= Zobrist.CASTLE_KEYS[color][0];
+            if ( (rights & CASTLE_QUEENSIDE) != 0 )
+                hash ^= Zobrist.CASTLE_KEYS[color][1];
+        }
+        if ( EnPassantSquare != NO_SQUARE )
+            hash ^= Zobrist.EN_PASSANT_KEYS[Bitboard.fileOf(EnPassantSquare)];
+        return hash;
+    }
+
     public String getFEN()
     {
         // board position
@@ -1879,12 +3082,9 @@ public class Game
     
     private String getCastleFEN(int player)
     {
-        King king = (King)this.getKing( player );
-        ChessPiece kingRook = king.getCastlingRook(king.inRank, king.inFile+1);
-        ChessPiece queenRook = king.getCastlingRook(king.inRank, king.inFile-1);
-        if ( king.MoveCount != 0 ) return "-"; //cannot castle
-        boolean kingside = kingRook != null && kingRook.MoveCount == 0;
-        boolean queenside = queenRook != null && queenRook.MoveCount == 0;
+        int rights = getCastlingRightsIn(player);
+        boolean kingside = (rights & CASTLE_KINGSIDE) != 0;
+        boolean queenside = (rights & CASTLE_QUEENSIDE) != 0;
         if ( !kingside && !queenside ) return "-";
         
         StringBuilder sb = new StringBuilder();
@@ -1897,6 +3097,51 @@ public class Game
         return sb.toString();
     }
 
+    // gives back castling rights to the king and the corner rooks of a
+    // player. A rook between the king and the corner keeps its move
+    // count, so it blocks castling on that side
+    private void setCastlingRightsIn(int player, int rights)
+    {
+        King king = findKingIn(player);
+        if ( king == null || rights == 0 ) return;
+        invalidateLegalMoves();
+        king.MoveCount = 0;
+        ChessPiece kingRook = getCornerRookIn(player, king.inRank, BOARD_NUMBER_FILES - 1);
+        ChessPiece queenRook = getCornerRookIn(player, king.inRank, 0);
+        if ( kingRook != null && (rights & CASTLE_KINGSIDE) != 0 )
+            kingRook.MoveCount = 0;
+        if ( queenRook != null && (rights & CASTLE_QUEENSIDE) != 0 )
+            queenRook.MoveCount = 0;
+    }
+    
+    private ChessPiece getCornerRookIn(int player, int rank, int file)
+    {
+        ChessPiece piece = GameBoard[rank][file];
+        if ( piece == null || piece.Color != player || piece.getType() != ROOK ) return null;
+        return piece;
+    }
+
+    /**
+     * Gets the castling rights of a player. A side may castle if neither
+     * the king nor the first rook on that side of it have moved.
+     * @param player WHITE or BLACK
+     * @return CASTLE_KINGSIDE and CASTLE_QUEENSIDE bits, or 0
+     */
+    private int getCastlingRightsIn(int player)
+    {
+        King king = findKingIn(player);
+        if ( king == null ) return 0; // no king to castle with
+        if ( king.MoveCount != 0 ) return 0; //cannot castle
+        ChessPiece kingRook = king.getCastlingRook(king.inRank, king.inFile+1);
+        ChessPiece queenRook = king.getCastlingRook(king.inRank, king.inFile-1);
+        int rights = 0;
+        if ( kingRook != null && kingRook.MoveCount == 0 )
+            rights |= CASTLE_KINGSIDE;
+        if ( queenRook != null && queenRook.MoveCount == 0 )
+            rights |= CASTLE_QUEENSIDE;
+        return rights;
+    }
+
     private String getBoardFEN()
     {
         StringBuilder sb = new StringBuilder();
@@ -1927,29 +3172,31 @@ public class Game
 
     private String getEpFEN()
     {
-        int dir = (GameWhoseTurn == WHITE) ? 1 : -1;
-        RecordOfMove lastMove = getLastMoveRecord();
-        if ( lastMove == null ) return "-";
-        if ( lastMove.PieceMoved.Type == PAWN && lastMove.fromInRank == lastMove.toInRank + 2*dir )
-            return Game.convertAlgebraicFromIn(lastMove.toInRank+dir, lastMove.toInFile);
-        else
-            return "-";
+        if ( EnPassantSquare == NO_SQUARE ) return "-";
+        return Game.convertAlgebraicFromIn(
+                Bitboard.rankOf(EnPassantSquare), Bitboard.fileOf(EnPassantSquare) );
     }
     
+    /**
+     * @return square a pawn skipped with its last move, 8*inRank + inFile,
+     *          or -1 if the last move was not a double pawn push
+     */
+    public int getEnPassantSquare() { return EnPassantSquare; }
+    
+    /**
+     * @param player WHITE or BLACK
+     * @param kingside true for the kingside, false for the queenside
+     * @return true if neither the king nor the rook on that side have moved
+     */
+    public boolean hasCastlingRights(int player, boolean kingside)
+    { return ( getCastlingRightsIn(player) & (kingside ? CASTLE_KINGSIDE : CASTLE_QUEENSIDE) ) != 0; }
+    
     /**
      * @return number of moves since capture or pawn move
      */
-    private int getHalfMoveClock()
-    { 
-        if ( GameHistory.isEmpty() ) return 0;
-        int numMoves = GameHistory.size();
-        for (int i = 1; i <= numMoves; i++ )
-        {
-            RecordOfMove move = GameHistory.get( numMoves - i );
-            if ( move.PieceMoved.getType() == PAWN || move.PieceCaptured != null )
-                return i - 1;
-        }
-        return numMoves; // TODO: add initial halfMoves if loaded from FEN
+    public int getHalfMoveClock()
+    {   if ( PositionCount == 0 ) return 0;
+        return HalfMoveClocks[PositionCount - 1];
     }
     
     private RecordOfMove getLastMoveRecord()  // TODO: subsitute functions where possible
@@ -1957,70 +3204,50 @@ public class Game
         return GameHistory.get( GameHistory.size() - 1 );
     }
 
-    private void initPatterns()
+    /**
+     * Finds the pieces of the player to move that could move to a square
+     * @param type piece type, or ' ' for a pawn
+     * @param location file 'a'-'h' or rank '1'-'8' the piece is on, or ' '
+     * @param to square index, 8*inRank + inFile
+     * @return bitboard of the matching pieces
+     */
+    private long matchPiecesIn(char type, char location, int to)
     {
-        try
-        {
-            matcherFull = Pattern.compile(REGEX_MOVE_FULL).matcher("");
-            matcherCastle = Pattern.compile(REGEX_CASTLE).matcher("");
-            matcherDisamb = Pattern.compile(REGEX_MOVE_DISAMB).matcher("");    
-        } catch(PatternSyntaxException pse) { // DEBUG
-                System.out.println("There is a problem" +
-                               " with the regular expression!");
-                System.out.println("The pattern in question is: "+
-                               pse.getPattern());
-                System.out.println("The description is: "+
-                               pse.getDescription());
-                System.out.println("The message is: "+
-                               pse.getMessage());
-                System.out.println("The index is: "+
-                               pse.getIndex());
-        }
-              
-    }
-
-    private List<ChessPiece> matchPiece(String typeStr, String location, String to)
-    {
-        char type = 'P';
-        if ( !typeStr.equals("") ) type = typeStr.charAt(0);
-        int disambig = -1;
-        boolean disambigRank = false;
-        boolean disambigFile = false;
-        if ( location.matches("[a-h]") )
-        {
-            disambigFile = true;
-            disambig = convertInFileFromAlgebraic( location );
-        } else if ( location.matches("[1-8]") ) {
-        
-            disambigRank = true;
-            disambig = convertInRankFromAlgebraic( "x" + location );
-        }
-        
-        // search ChessPieces
-        ArrayList<ChessPiece> matches = new ArrayList<>(3);
-        //ChessPiece match = null;
-        for ( ChessPiece piece : this.GamePieces )
-        {
-            if ( piece.Color != GameWhoseTurn ) continue; // piece must be for current player
-            if ( piece.Type != type ) continue; // must have correct type
-            if ( !piece.isActive ) continue; // piece must be active
-            // try to disambiguate
-            if ( disambigFile && piece.inFile != disambig ) continue;
-            if ( disambigRank && piece.inRank != disambig ) continue;
-            // can the piece see the target
-            if ( type == PAWN )
-            {
-                Pawn pawn = ((Pawn)piece);
-                if ( !pawn.canMoveForward(to) && !pawn.canCapture(to) ) continue;
-
-            } else {
-                if ( PIECE_IS_OBSERVING != piece.isObservingIn(
-                    convertInRankFromAlgebraic(to), convertInFileFromAlgebraic(to)) )
-                continue;  // skip if piece is not observing to square
+        if ( type == ' ' ) type = PAWN;
+        int typeIndex = getTypeIndex(type);
+        long pieces = ColorBitboards[GameWhoseTurn] & TypeBitboards[typeIndex];
+        
+        // try to disambiguate
+        if ( location >= 'a' && location <= 'h' )
+            pieces &= Bitboard.FILE_A << (location - 'a');
+        else if ( location >= '1' && location <= '8' )
+            pieces &= Bitboard.RANK_1 << (8 * (location - '1'));
+        if ( pieces == 0L ) return 0L;
+        
+        // can the piece see the target
+        if ( typeIndex != PAWN_INDEX )
+            return pieces & getAttackersIn(to, GameWhoseTurn, getOccupied());
+        
+        long matches = 0L;
+        long toMask = 1L << to;
+        if ( (ColorBitboards[getOtherColor(GameWhoseTurn)] & toMask) != 0L ) 
+            // pawns that can capture on the square
+            matches |= pieces & Bitboard.PAWN_ATTACKS[getOtherColor(GameWhoseTurn)][to];
+        else if ( (ColorBitboards[GameWhoseTurn] & toMask) == 0L )
+        {   // pawns that can move forward to the empty square
+            int step = ( GameWhoseTurn == WHITE ) ? 8 : -8;
+            int from = to - step;
+            if ( from >= 0 && from < Bitboard.NUM_OF_SQUARES )
+            {   if ( (pieces & (1L << from)) != 0L )
+                    matches |= 1L << from;
+                else if ( (getOccupied() & (1L << from)) == 0L )
+                {   // pawn that has not moved can move 2 squares
+                    from -= step;
+                    if ( from >= 0 && from < Bitboard.NUM_OF_SQUARES && (pieces & (1L << from)) != 0L 
+                            && GameBoard[Bitboard.rankOf(from)][Bitboard.fileOf(from)].MoveCount == 0 )
+                        matches |= 1L << from;
+                }
             }
-            
-            matches.add(piece);
-            //match = piece;
         }
         return matches;
     }
@@ -2061,6 +3288,7 @@ public class Game
         protected int inRank;   // Internal rank and file index
         protected int inFile;   // 0 <= inRank, inFile <= 7 
         protected final char Type;
+        protected final int TypeIndex;
         protected final int Color;
         protected int Status = PIECE_NOT_PLACED;
         protected boolean isActive = false;
@@ -2091,6 +3319,7 @@ public class Game
             if ( !isValidType(type) )   // validate type
                 throw new IllegalArgumentException("Invalid type.");
             Type = type;
+            TypeIndex = getTypeIndex(type);
         }
         
         /**
@@ -2102,6 +3331,7 @@ public class Game
             this.inRank = orig.inRank;
             this.inFile  = orig.inFile;
             this.Type  = orig.Type;
+            this.TypeIndex  = orig.TypeIndex;
             this.Color  = orig.Color;
             this.Status  = orig.Status;
             this.isActive  = orig.isActive;
@@ -2240,6 +3470,7 @@ public class Game
 
             // set the new position and update mChessBoard
             updateChessPieceIn(inRank, inFile);
+            EnPassantSquare = NO_SQUARE;
             
             // check for checks, checkmate, stalemate or draw
             int opponentColor = ( Color == WHITE ) ? BLACK : WHITE;
@@ -2253,6 +3484,7 @@ public class Game
                     this, fromInRank, fromInFile,
                     captured, null, 
                     check, checkmate, stalemate ) );
+            pushPositionIn(opponentColor, captured != null);
             
             
             /* ******************************************************
@@ -2302,11 +3534,30 @@ public class Game
                     Game.convertInFileFromChessFile(chessFile)  );
         }
         
-        protected int validateMoveIn(int inRank, int inFile)
+        /**
+         * Validates a move, answering from the last validation if the 
+         * same move was checked in this position. See checkMoveIn()
+         */
+        protected final int validateMoveIn(int inRank, int inFile)
         {
-            // TODO: potential optimization: track validated moves
-            //       so moves don't need to be re-evaluated
+            if ( !isValidInCoord(inRank, inFile) )
+                return checkMoveIn(inRank, inFile);
+            int to = Bitboard.squareOf(inRank, inFile);
+            if ( ValidatedPiece == this && ValidatedTo == to 
+                    && ValidatedEnPassant == EnPassantSquare )
+                return ValidatedCode;
             
+            int code = checkMoveIn(inRank, inFile);
+            ValidatedPiece = this;
+            ValidatedTo = to;
+            ValidatedEnPassant = EnPassantSquare;
+            ValidatedCode = code;
+            return code;
+        }
+        
+        // works out the move code of a move, see validateMoveIn()
+        protected int checkMoveIn(int inRank, int inFile)
+        {
             if ( !isValidInCoord(inRank, inFile) )
                 return INVALID_COORDINATE;
             
@@ -2320,28 +3571,12 @@ public class Game
             if ( isObservingCode != PIECE_IS_OBSERVING )
                 return isObservingCode;
                         
-            // cannot move into check:
-            //      (1)update moving piece position, remove catpured piece if any
-            //      (2)call isInCheck(mColor)
-            //      (3)undo moving piece, undo removing captured piece
-            
-            int fromInRank = this.inRank;  // save current rank
-            int fromInFile = this.inFile;  // and file
-            
-            // (1) get piece to be captured, if any
-            ChessPiece captured = GameBoard[inRank][inFile];
-            if ( captured != null )
-                captured.isActive = false;     // temporarily deactivate
-            updatePositionIn(inRank,inFile);   // (1)temporarily move the piece
-            
-            boolean isInCheck = isInCheck(Color);  // (2)
-            
-            // undo temporary move (3)
-            updatePositionIn(fromInRank, fromInFile);
-            GameBoard[inRank][inFile] = captured;
-            if ( captured != null )
-                captured.isActive = true;
-            
+            // cannot move into check
+            int from = Bitboard.squareOf(this.inRank, this.inFile);
+            int to = Bitboard.squareOf(inRank, inFile);
+            boolean isInCheck = ( TypeIndex == KING_INDEX )
+                    ? isKingAttackedAfterIn(Color, from, to, to, to)
+                    : isMoveIntoCheckIn(Color, from, to);
             if ( isInCheck )
                 return MOVE_ILLEGAL_KING_IN_CHECK;
             
@@ -2353,7 +3588,7 @@ public class Game
         {
             isActive = false;
             Status = PIECE_CAPTURED;
-            GameBoard[inRank][inFile] = null;
+            setSquareIn(inRank, inFile, null);
             // call chess piece listener function
             if ( PieceListeners != null )
                 for ( PieceListener listener : PieceListeners )
@@ -2409,7 +3644,7 @@ public class Game
             
             this.inRank = inRank;
             this.inFile = inFile;
-            GameBoard[inRank][inFile] = this;
+            setSquareIn(inRank, inFile, this);
             Status = PIECE_ACTIVE;
             isActive = true;
 
@@ -2418,13 +3653,13 @@ public class Game
                     listener.onUpdate(this);
         }
         
-        // used by validateMove(). does not publish
+        // moves the piece without publishing to listeners
         protected void updatePositionIn(int inRank, int inFile)
         {
             // set current position to null
-            GameBoard[this.inRank][this.inFile] = null;
+            setSquareIn(this.inRank, this.inFile, null);
             // set reference to this piece at new square
-            GameBoard[inRank][inFile] = this;
+            setSquareIn(inRank, inFile, this);
             // set the position in the piece
             this.inRank = inRank;
             this.inFile = inFile;
@@ -2464,12 +3699,34 @@ public class Game
         
         abstract protected int isObservingIn(int rank, int file);
         
+        /**
+         * Answers isObservingIn() by table lookup
+         * @param attacks squares the piece attacks on an empty board
+         * @param rank rank and
+         * @param file file of the square to examine
+         * @return PIECE_IS_OBSERVING, MOVE_ILLEGAL_IMPEDED or MOVE_ILLEGAL
+         */
+        protected int isObservingIn(long[] attacks, int rank, int file)
+        {
+            if ( !isValidInCoord(rank, file) )
+                return MOVE_ILLEGAL;
+            int from = Bitboard.squareOf(inRank, inFile);
+            int to = Bitboard.squareOf(rank, file);
+            if ( (attacks[from] & (1L << to)) == 0L )
+                return MOVE_ILLEGAL;
+            if ( (Bitboard.SQUARES_BETWEEN[from][to] & getOccupied()) != 0L )
+                return MOVE_ILLEGAL_IMPEDED;
+            return PIECE_IS_OBSERVING;
+        }
+        
         /**
          * returns true if the piece has a valid move
          * @return true or false
          */
         public boolean hasValidMove()
         {   if ( !isActive ) return false;
+            if ( Color == GameWhoseTurn )
+                return getLegalTargetsIn( Bitboard.squareOf(inRank, inFile) ) != 0L;
             for ( Square square : getCandidateMoves() )
                 if ( isMoveCodeLegal( validateMove(square) ) )
                     return true;
@@ -2487,6 +3744,13 @@ public class Game
                 return validMoves;  //return empty if wrong turn
             List<Square> candidateMoves = getCandidateMoves();
             
+            if ( isActive )
+            {   long targets = getLegalTargetsIn( Bitboard.squareOf(inRank, inFile) );
+                for (Square square : candidateMoves)
+                    if ( (targets & Bitboard.maskOf(square.inRank, square.inFile)) != 0L )
+                        validMoves.add(square);
+                return validMoves;
+            }
             for (Square square : candidateMoves)
             {
                 if ( isMoveCodeLegal( validateMove(square) ) )
@@ -2494,7 +3758,32 @@ public class Game
             }
             return validMoves;
         }
-        
+
+        /**
+         * Gets all valid moves for this piece as a set of target squares.
+         * Same squares as getValidMoves(), without a Square per move
+         * @return target squares, empty if it is not this piece's turn
+         */
+        public SquareSet getValidMoveSet()
+        {
+            if ( !isActive || Color != GameWhoseTurn )
+                return SquareSet.EMPTY;
+            return SquareSet.valueOf( getLegalTargetsIn(Bitboard.squareOf(inRank, inFile)) );
+        }
+
+        /**
+         * Writes the legal moves of this piece into a buffer supplied by
+         * the caller, packed into ints. See Game.generateLegalMoves(int[])
+         * @param buffer array to write the moves into
+         * @return number of moves written, 0 if it is not this piece's turn
+         */
+        public int generateLegalMoves(int[] buffer)
+        {
+            if ( !isActive || Color != GameWhoseTurn )
+                return 0;
+            return generateLegalMovesFrom(Bitboard.squareOf(inRank, inFile), false, buffer, 0);
+        }
+
         /**
          * Gets a list of squares the piece might be able to move to
          * @return ArrayList of Square objects containing candidate squares
@@ -2604,12 +3893,12 @@ public class Game
         public int validateCastleQueenside() { return validateCastle(inRank, 0); }
         
         @Override
-        protected int validateMoveIn(int inRank, int inFile)
+        protected int checkMoveIn(int inRank, int inFile)
         {
             if ( isTryingToCastle(inRank,inFile) )
                 return validateCastle(inRank,inFile);
             else
-                return super.validateMoveIn(inRank, inFile);
+                return super.checkMoveIn(inRank, inFile);
         }
 
         @Override
@@ -2668,6 +3957,7 @@ public class Game
             // update king and rook
             updateChessPieceIn(fromRank, toKingFile);
             castlingRook.updateChessPieceIn(fromRookRank, toRookFile);
+            EnPassantSquare = NO_SQUARE;
             
             // check for checks, checkmate, stalemate or draw
             int opponentColor = ( Color == WHITE ) ? BLACK : WHITE;
@@ -2681,6 +3971,7 @@ public class Game
                     this, fromRank, fromFile,
                     castlingRook,
                     check, checkmate, stalemate  ) );
+            pushPositionIn(opponentColor, false);
 
             endTurn(playerStateCode);
             return code;
@@ -2688,14 +3979,15 @@ public class Game
         
         protected ChessPiece getCastlingRook(int toRank, int toFile)
         {
-            // returns the rook to castle with
+            // returns the rook to castle with, the first of our rooks on that side
             int kingFile = inFile;
             int sign = Integer.signum( toFile - kingFile );
             
             for ( int i = kingFile + sign; (i >= 0 && i < BOARD_NUMBER_FILES); i += sign )
             {
                 if ( GameBoard[toRank][i] != null && 
-                        GameBoard[toRank][i].getType() == ROOK )
+                        GameBoard[toRank][i].getType() == ROOK &&
+                        GameBoard[toRank][i].Color == Color )
                     return GameBoard[toRank][i];
             }
             return null;
@@ -2727,15 +4019,9 @@ public class Game
             int toKingFile = isCastlingKingside ? 6 : 2;
             int toRookFile = isCastlingKingside ? 5 : 3;
 
-            // check for impeded
-            int[] fileList = {rookFile,kingFile,toKingFile,toRookFile};
-            int minFile = toKingFile;
-            int maxFile = toKingFile;
             // find range of possibly impeded squares
-            for (int i = 0; i < fileList.length; i++)
-            {   minFile = fileList[i] < minFile ? fileList[i] : minFile;
-                maxFile = fileList[i] > maxFile ? fileList[i] : maxFile;
-            }
+            int minFile = Math.min( Math.min(rookFile, kingFile), Math.min(toKingFile, toRookFile) );
+            int maxFile = Math.max( Math.max(rookFile, kingFile), Math.max(toKingFile, toRookFile) );
             // check squares in range for impeded
             for (int i = minFile; i <= maxFile; i++)
             {   ChessPiece square = GameBoard[rank][i];
@@ -2745,40 +4031,27 @@ public class Game
                     return ILLEGAL_CASTLE_IMPEDED;
             }
 
-            // temporarily deactive rook
+            // the rook does not block attacks on the king's path
             if ( GameBoard[rank][rookFile] != castlingRook)
                 return MOVE_ILLEGAL;
-            GameBoard[rank][rookFile] = null;
+            long occupied = getOccupied() & ~Bitboard.maskOf(rank, rookFile);
+            int opponentColor = getOtherColor(Color);
             
             // check for checks
             minFile = isCastlingKingside ? kingFile : toKingFile;
             maxFile = isCastlingKingside ? toKingFile : kingFile;
-            boolean throughCheck = false;
             for (int i = minFile; i <= maxFile; i++)
-            {   if ( isInCheck(Color,rank,i) )
-                {   throughCheck = true;
-                    break;
-                }                
+            {   if ( getAttackersIn(Bitboard.squareOf(rank, i), opponentColor, occupied) != 0L )
+                    return ILLEGAL_CASTLE_THROUGH_CHECK;
             }
             
-            // re-activate rook
-            GameBoard[rank][rookFile] = castlingRook;
-            
-            if ( throughCheck ) return ILLEGAL_CASTLE_THROUGH_CHECK;
             return isCastlingKingside ? MOVE_LEGAL_CASTLE_KINGSIDE : MOVE_LEGAL_CASTLE_QUEENSIDE;     
         }
         
 
         @Override
         protected int isObservingIn(int rank, int file) 
-        {
-            if ( ( Math.abs(inRank - rank) <= 1 ) 
-                    && ( Math.abs(inFile - file) <= 1 )
-                    && (rank != inRank || file != inFile) )
-                return PIECE_IS_OBSERVING;
-            else
-                return MOVE_ILLEGAL; 
-        }
+        { return isObservingIn(Bitboard.KING_ATTACKS, rank, file); }
 
         @Override
         public List<Square> getCandidateMoves()
@@ -2823,49 +4096,7 @@ public class Game
 
         @Override
         protected int isObservingIn(int rank, int file)
-        {
-            //System.out.println("Calling queen isObserving " + Chess.convertInternalToAlgebraic(rank, file)); // DEBUG
-            if ( inRank == rank && inFile == file )  // already occupying square
-                 return MOVE_ILLEGAL;
-            else if ( inRank == rank )               // check if on same rank
-            {
-                // check if impeded
-                int d = inFile - file;   // difference
-                int s = Integer.signum(file - inFile);   // sign
-                for ( int i = 1; abs(d+i*s) > 0 ; i++)
-                {
-                    // Look at square (mRank), (mFile + s*i)
-                    //System.out.println("isObserving Checking " + Chess.convertInternalToAlgebraic(rank, mFile+s*i)); // DEBUG
-                    if ( GameBoard[inRank][inFile+s*i] != null )
-                        return MOVE_ILLEGAL_IMPEDED;
-                }
-                return PIECE_IS_OBSERVING;
-            } else if ( inFile == file ) {           // check if on same file
-                int d = inRank - rank;
-                int s = Integer.signum(rank - inRank);
-                for (int i = 1; abs(d+i*s) > 0; i++)
-                {
-                    //System.out.println("isObserving Checking " + Chess.convertInternalToAlgebraic(mRank+s*i, mFile)); // DEBUG
-                    if( GameBoard[inRank+s*i][inFile] != null )
-                        return MOVE_ILLEGAL_IMPEDED;
-                }
-                return PIECE_IS_OBSERVING;
-            } else if ( abs((double)(rank - inRank) / (double)(file - inFile) ) == 1.0 ) {  // check diagonalS
-                int d = inFile - file;   // difference
-                int s = Integer.signum(file - inFile);   // sign
-                int sl = (int)((double)(rank - inRank) / (double)(file - inFile)) ;  // slope
-                //System.out.println("isObserving on diagonal, slope is " + sl);
-                for (int i = 1; abs(d+i*s) > 0; i++)
-                {
-                    // look at square (mRank + s*i), (mFile + s*i)
-                    //System.out.println("isObserving Checking " + Chess.convertInternalToAlgebraic(mRank+sl*s*i, mFile+s*i)); // DEBUG
-                    if( GameBoard[inRank+sl*s*i][inFile+s*i] != null )
-                        return MOVE_ILLEGAL_IMPEDED;
-                }
-                return PIECE_IS_OBSERVING; 
-            }
-            return MOVE_ILLEGAL;            
-        }
+        { return isObservingIn(Bitboard.QUEEN_ATTACKS, rank, file); }
 
         @Override
         public List<Square> getCandidateMoves()
@@ -2890,35 +4121,7 @@ public class Game
         
         @Override
         protected int isObservingIn(int rank, int file)
-        {
-            if ( inRank == rank && inFile == file )  // already occupying square
-                 return MOVE_ILLEGAL;
-            else if ( inRank == rank )               // check if on same rank
-            {
-                // check if impeded
-                int d = inFile - file;   // difference
-                int s = Integer.signum(file - inFile);   // sign
-                for ( int i = 1; abs(d+i*s) > 0 ; i++)
-                {
-                    // Look at square (mRank), (mFile + s*i)
-                    //System.out.println("isObserving Checking " + Chess.convertInternalToAlgebraic(rank, mFile+s*i)); // DEBUG
-                    if ( GameBoard[inRank][inFile+s*i] != null )
-                        return MOVE_ILLEGAL_IMPEDED;
-                }
-                return PIECE_IS_OBSERVING;
-            } else if ( inFile == file ) {           // check if on same file
-                int d = inRank - rank;
-                int s = Integer.signum(rank - inRank);
-                for (int i = 1; abs(d+i*s) > 0; i++)
-                {
-                    //System.out.println("isObserving Checking " + Chess.convertInternalToAlgebraic(mRank+s*i, mFile)); // DEBUG
-                    if( GameBoard[inRank+s*i][inFile] != null )
-                        return MOVE_ILLEGAL_IMPEDED;
-                }
-                return PIECE_IS_OBSERVING;
-            }
-            return MOVE_ILLEGAL;
-        }
+        { return isObservingIn(Bitboard.ROOK_ATTACKS, rank, file); }
 
         @Override
         public List<Square> getCandidateMoves()
@@ -2942,25 +4145,7 @@ public class Game
 
         @Override
         protected int isObservingIn(int rank, int file)
-        {
-            if ( inRank == rank && inFile == file )  // already occupying square
-                 return MOVE_ILLEGAL;
-            else if ( abs((double)(rank - inRank) / (double)(file - inFile) ) == 1.0 ) {  // check diagonalS
-                int dif = inFile - file;   // difference
-                int sign = Integer.signum(file - inFile);   // sign
-                int sl = (int)((double)(rank - inRank) / (double)(file - inFile)) ;  // slope
-                //System.out.println("isObserving on diagonal, slope is " + sl);
-                for (int i = 1; abs(dif+i*sign) > 0; i++)
-                {
-                    // look at square (mRank + s*i), (mFile + s*i)
-                    //System.out.println("isObserving Checking " + Chess.convertInternalToAlgebraic(mRank+sl*s*i, mFile+s*i)); // DEBUG
-                    if( GameBoard[inRank+sl*sign*i][inFile+sign*i] != null )
-                        return MOVE_ILLEGAL_IMPEDED;
-                }
-                return PIECE_IS_OBSERVING; 
-            }
-            return MOVE_ILLEGAL;
-        }
+        { return isObservingIn(Bitboard.BISHOP_ATTACKS, rank, file); }
 
         @Override
         public List<Square> getCandidateMoves()
@@ -2980,17 +4165,7 @@ public class Game
 
         @Override
         protected int isObservingIn(int rank, int file)
-        {
-            //if ( mRank == rank && mFile == file )  // already occupying square
-            //     return MOVE_ILLEGAL;
-            int absRankDif = abs(inRank - rank);
-            int absFileDif = abs(inFile - file);
-            if ( ( absRankDif == 2 && absFileDif == 1 ) ||
-                 ( absRankDif == 1 && absFileDif == 2  )  )
-                return PIECE_IS_OBSERVING;
-            return MOVE_ILLEGAL;
-                    
-        }
+        { return isObservingIn(Bitboard.KNIGHT_ATTACKS, rank, file); }
 
         @Override
         public List<Square> getCandidateMoves()
@@ -3093,7 +4268,7 @@ public class Game
                 // promoting
                 isActive = false;
                 Status = PIECE_PROMOTED;
-                GameBoard[inRank][inFile] = null;
+                setSquareIn(inRank, inFile, null);
                 promotion.setPositionIn(inRank, inFile);
                 promotion.StartInRank = 8;
                 promotion.StartInFile = this.StartInFile;
@@ -3104,6 +4279,7 @@ public class Game
                         listener.onPromote(this,promotion);
             }
             // add promoted piece at rank,file, if needed
+            setEnPassantSquareIn(this, fromRank, inRank, inFile);
             
             // check for checks, checkmate, stalemate or draw
             int opponentColor = ( Color == WHITE ) ? BLACK : WHITE;
@@ -3119,6 +4295,7 @@ public class Game
                     this, fromRank, fromFile,
                     captured, promotion, 
                     check, checkmate, stalemate   ) );
+            pushPositionIn(opponentColor, true);
             
             endTurn(playerStateCode);
             return code;
@@ -3137,7 +4314,7 @@ public class Game
         
         
         @Override
-        protected int validateMoveIn(int rank, int file) 
+        protected int checkMoveIn(int rank, int file) 
         {
             if ( !isValidInCoord(rank, file) )
                 return INVALID_COORDINATE;
@@ -3149,7 +4326,6 @@ public class Game
             
             
             int direction = (Color == WHITE) ? 1 : -1;
-            ChessPiece captured = null;
             boolean enPassant = false;
             if ( (inFile == file) && (inRank + direction == rank ) )  
             {
@@ -3171,7 +4347,6 @@ public class Game
                 
             } else if ( (abs(inFile - file) == 1) && (inRank + direction == rank) ) {
                 // capturing a piece
-                captured = GameBoard[rank][file];
                 if ( GameBoard[rank][file] == null )
                 {
                     // nothing to capture unless en passant is possible
@@ -3188,13 +4363,8 @@ public class Game
                     if ( GameBoard[inRank][file].getType() != PAWN )
                         return MOVE_ILLEGAL;
                     // we know its a pawn on our 5th rank, possible E.P. check last move
-                    ChessPiece neighborPawn = GameBoard[inRank][file];
-                    RecordOfMove lastMove = GameHistory.get( GameHistory.size() - 1 );
-                    if ( lastMove.PieceMoved != neighborPawn )
+                    if ( EnPassantSquare != Bitboard.squareOf(rank, file) )
                         return MOVE_ILLEGAL_LATE_EN_PASSANT;
-                    if ( lastMove.fromInRank != inRank + 2*direction )
-                        return MOVE_ILLEGAL_LATE_EN_PASSANT;
-                    captured = neighborPawn;
                     enPassant = true;
                     // if en passant square is an enemy pawn, 
                     //and its just moved two square, E.P. is OK
@@ -3206,40 +4376,14 @@ public class Game
             }
 
             
-            //  cange to mRank and mFile
-            int fromRank = inRank;  // save current rank 
-            int fromFile = inFile;  // and file
-            //int fromRank = getPositionInternalRank();  // save current rank 
-            //int fromFile = getPositionInternalFile();  // and file
-            
-            // cannot move into check:
-            //      (1)update moving piece position, remove catpured piece if any
-            //      (2)call isInCheck(mColor)
-            //      (3)undo moving piece, undo removing captured piece
-            // (1) get piece to be captured, if any
-            //ChessPiece captured = mChessBoard[rank][file];
-            if ( captured != null )
-            {
-                captured.isActive = false;     // temporarily deactivate
-                if ( enPassant )
-                    GameBoard[fromRank][file] = null;
-            }
-            updatePositionIn(rank,file);   // (1)temporarily move the piece
-            
-            boolean isInCheck = isInCheck(Color);  // (2)
-            
-            // undo temporary move (3)
-            updatePositionIn(fromRank, fromFile);
-            if ( captured != null )
-            {
-                captured.isActive = true;
-                if ( enPassant )
-                    GameBoard[fromRank][file] = captured;
-                else
-                    GameBoard[rank][file] = captured;
-                    
-            }
-            
+            // cannot move into check. en passant removes a second piece
+            // from the board, so it is tested on the bitboards
+            int from = Bitboard.squareOf(inRank, inFile);
+            int to = Bitboard.squareOf(rank, file);
+            boolean isInCheck = enPassant
+                    ? isKingAttackedAfterIn(Color, from, to,
+                            Bitboard.squareOf(inRank, file), getKingSquare(Color))
+                    : isMoveIntoCheckIn(Color, from, to);
             if ( isInCheck )
                 return MOVE_ILLEGAL_KING_IN_CHECK;
             
@@ -3251,36 +4395,8 @@ public class Game
         
         @Override
         protected int isObservingIn(int rank, int file)
-        {
-            int direction = (Color == WHITE) ? 1 : -1;
-            if ( abs(inFile - file) == 1 &&
-                    (inRank + direction == rank) )
-                return PIECE_IS_OBSERVING;
-            return MOVE_ILLEGAL;
-        }
-        
-        protected boolean canCapture(String to)
-        {
-            int toInRank = convertInRankFromAlgebraic(to);
-            int toInFile = convertInFileFromAlgebraic(to);
-            return isObservingIn(toInRank,toInFile) == Game.PIECE_IS_OBSERVING
-                    && GameBoard[toInRank][toInFile] != null &&
-                    GameBoard[toInRank][toInFile].Color != GameWhoseTurn;
-        }
+        { return isObservingIn(Bitboard.PAWN_ATTACKS[Color], rank, file); }
         
-        protected boolean canMoveForward(String to)
-        {
-            int toInRank = convertInRankFromAlgebraic(to);
-            int toInFile = convertInFileFromAlgebraic(to);
-            int direction = GameWhoseTurn == WHITE ? 1 : -1;
-            if ( inFile != toInFile ) return false; // cant move forward to dif file
-            if ( GameBoard[toInRank][toInFile] != null ) return false; // square is blocked
-            if ( inRank + direction == toInRank ) return true; // not blocked, moving 1 square
-            if ( inRank + 2*direction != toInRank ) return false; // try to move 2 squares
-            if ( GameBoard[inRank + direction][toInFile] != null ) return false; // square is blocked
-            return MoveCount == 0; // can move 2 if it hasnt moved yet
-        }
-
         @Override
         public List<Square> getCandidateMoves()
         {
@@ -3310,7 +4426,7 @@ public class Game
         // TODO: have method to convert piece reference to string with starting square
         final public int moveNumber;
         final public int whoseTurn;
-        final public String moveText;  
+        private String moveText; // built on first call to getMoveText()
         // TODO: add comment field
         // The piece moved. required
         final public ChessPiece PieceMoved;
@@ -3327,18 +4443,30 @@ public class Game
         final public ChessPiece RookCastled;
         final public boolean Checkmate; // did this move produce checkmate
         final public boolean Stalemate; // or stalemate
+        final private boolean Check;
+        // other pieces of the moved type that also attacked the to square
+        final private long Rivals;
         
         /**
          * Gets a notational representation of the move
          * @return example: "1... e7 e5"
          */
         public String getFullMoveText()
-        {   return (whoseTurn == WHITE) ?  moveNumber + ". " + moveText
-                    : moveNumber + "... " + moveText ;
+        {   return (whoseTurn == WHITE) ?  moveNumber + ". " + getMoveText()
+                    : moveNumber + "... " + getMoveText() ;
+        }
+        
+        /**
+         * Gets the move in standard algebraic notation
+         * @return example: "Nbd7", "exd5", "e8=Q+", "O-O-O#"
+         */
+        public String getMoveText()
+        {   if ( moveText == null ) moveText = buildMoveText();
+            return moveText;
         }
         
         @Override public String toString()
-        { return moveText; }
+        { return getMoveText(); }
 
         // getters
         public String getFrom() { return convertAlgebraicFromIn(fromInRank, fromInFile); }
@@ -3393,32 +4521,14 @@ public class Game
             this.whoseTurn = GameWhoseTurn;
             moveNumber = getMoveNumber();
             
-            // construct move string 
-            StringBuilder sb = new StringBuilder();
-            String to = convertAlgebraicFromIn(toInRank,toInFile);
-            String from = convertAlgebraicFromIn(fromInRank,fromInFile);
-            if ( PieceMoved.getType() == PAWN )
-            {   if ( PieceCaptured != null ) sb.append( from.charAt(0) ).append("x");
-            } else {
-                // append piece move prefix
-                String type = "" + PieceMoved.getType(); // get type and convert to String
-                sb.append( type );
-                if ( !matchPiece(type, "", to).isEmpty() )  
-                {   // need to disambiguate
-                    if ( matchPiece(type, "" + from.charAt(0), to).isEmpty() )
-                        sb.append( from.charAt(0) ); // disambiguate with file
-                    else if ( matchPiece(type, "" + from.charAt(1), to).isEmpty() )
-                        sb.append( from.charAt(1) ); // disambiguate with rank
-                    else
-                        sb.append(from); // disambiguate with rank and file
-                }
-                if ( PieceCaptured != null ) sb.append("x");
-            }
+            this.Check = check;
             
-            sb.append( to )
-            .append( (PiecePromoted == null) ? "" : "=" + promotionType )
-            .append( checkmate ? "#" : check ? "+" : "");
-            moveText = sb.toString();
+            // pieces the move text must be disambiguated from
+            if ( PieceMoved.TypeIndex == PAWN_INDEX )
+                Rivals = 0L;
+            else
+                Rivals = getAttackersIn( Bitboard.squareOf(toInRank, toInFile), GameWhoseTurn, 
+                        getOccupied() ) & TypeBitboards[PieceMoved.TypeIndex];
         }
         
 
@@ -3456,19 +4566,8 @@ public class Game
             this.Stalemate = stalemate;
             this.whoseTurn = GameWhoseTurn;
             moveNumber = getMoveNumber();
-            
-            StringBuilder sb = new StringBuilder();
-            
-            // generate move text
-            if ( castledRook.StartInFile < movedFromFile  )
-                sb.append("O-O-O");
-            else
-                sb.append("O-O");
-            if ( checkmate )
-                sb.append("#");
-            else if ( check )
-                sb.append("+");
-            moveText = sb.toString();
+            this.Check = check;
+            Rivals = 0L;
         }
         
         /**
@@ -3493,6 +4592,44 @@ public class Game
             this.RookCastled   = hashmap.get( orig.RookCastled ) ;
             this.Checkmate   = orig.Checkmate;
             this.Stalemate = orig.Stalemate;
+            this.Check = orig.Check;
+            this.Rivals = orig.Rivals;
+        }
+        
+        private String buildMoveText()
+        {
+            StringBuilder sb = new StringBuilder(8);
+            if ( RookCastled != null )
+            {   // castling
+                if ( RookCastled.StartInFile < fromInFile )
+                    sb.append("O-O-O");
+                else
+                    sb.append("O-O");
+            } else {
+                char fromFile = (char)('a' + fromInFile);
+                char fromRank = (char)('1' + fromInRank);
+                if ( PieceMoved.TypeIndex == PAWN_INDEX )
+                {   if ( PieceCaptured != null ) sb.append( fromFile ).append('x');
+                } else {
+                    // append piece move prefix
+                    sb.append( PieceMoved.getType() );
+                    if ( Rivals != 0L )
+                    {   // need to disambiguate
+                        if ( (Rivals & (Bitboard.FILE_A << fromInFile)) == 0L )
+                            sb.append( fromFile ); // disambiguate with file
+                        else if ( (Rivals & (Bitboard.RANK_1 << 8*fromInRank)) == 0L )
+                            sb.append( fromRank ); // disambiguate with rank
+                        else
+                            sb.append( fromFile ).append( fromRank ); // disambiguate with rank and file
+                    }
+                    if ( PieceCaptured != null ) sb.append('x');
+                }
+                sb.append( (char)('a' + toInFile) ).append( (char)('1' + toInRank) );
+                if ( PiecePromoted != null ) sb.append('=').append( promotionType );
+            }
+            if ( Checkmate ) sb.append('#');
+            else if ( Check ) sb.append('+');
+            return sb.toString();
         }
         
     }
@@ -3537,31 +4674,17 @@ public class Game
         {
             return returnList;
         }
-        int rankDif = inRank2 - inRank1;
-        int fileDif = inFile2 - inFile1;
-        int rankDir = rankDif > 0 ? 1 : -1;
-        int fileDir = fileDif > 0 ? 1 : -1;
-        if (inRank1 == inRank2)
+        int from = Bitboard.squareOf(inRank1, inFile1);
+        int to = Bitboard.squareOf(inRank2, inFile2);
+        int direction = Bitboard.DIRECTION[from][to];
+        if (direction == Bitboard.NO_DIRECTION)
         {
-            for (int file = inFile1; file != inFile2; file += fileDir)
-            {
-                returnList.add(new Square(inRank1, file));
-            }
-        } else if (inFile1 == inFile2)
-        {
-            for (int rank = inRank1; rank != inRank2; rank += rankDir)
-            {
-                returnList.add(new Square(rank, inFile1));
-            }
-        } else if (abs((double) (rankDif) / (double) (fileDif)) == 1.0)
+            return returnList; // not on the same rank, file or diagonal
+        }
+        int shift = Bitboard.DIRECTION_SHIFTS[direction];
+        for (int square = from; square != to; square += shift)
         {
-            int file = inFile1;
-            for (int rank = inRank1; rank != inRank2; rank += rankDir)
-            {
-                //add
-                returnList.add(new Square(rank, file));
-                file += fileDir;
-            }
+            returnList.add(new Square(Bitboard.rankOf(square), Bitboard.fileOf(square)));
         }
         return returnList;
     }
@@ -0,0 +1,81 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess;
+
+/**
+ * Immutable picture of a Game position, made by Game.snapshot().
+ * Taking a snapshot copies the bitboards and shares the list of earlier
+ * positions with the game, so it costs the same however long the game
+ * is. A playable Game is only built when toGame() is called, so many
+ * what-if branches can be kept around cheaply.
+ *
+ * The new Game starts at the snapshot position, with the earlier
+ * positions needed for the draw rules but without move history.
+ */
+public final class GameSnapshot
+{
+    /**
+     * A position already played. Each node links to the position
+     * before it, so games and snapshots can share one list.
+     */
+    static final class PositionNode
+    {
+        final PositionNode Previous;
+        final long Hash;
+        final int HalfMoveClock;
+
+        PositionNode(PositionNode previous, long hash, int halfMoveClock)
+        {
+            Previous = previous;
+            Hash = hash;
+            HalfMoveClock = halfMoveClock;
+        }
+    }
+
+    final long[] ColorBitboards; // [BLACK], [WHITE]
+    final long[] TypeBitboards;  // [PAWN_INDEX]...[KING_INDEX]
+    final int WhoseTurn;
+    final int CastlingRights;    // black's rights in bits 0-1, white's in bits 2-3
+    final int EnPassantSquare;
+    final int TurnCount;
+    final int GameState;
+    final boolean isGameActive;
+    final long PositionHash;
+    final PositionNode Positions; // last position played, or null
+    final int PositionCount;      // number of nodes in Positions
+
+    GameSnapshot(long[] colorBitboards, long[] typeBitboards, int whoseTurn,
+            int castlingRights, int enPassantSquare, int turnCount, int gameState,
+            boolean isGameActive, long positionHash, PositionNode positions, int positionCount)
+    {
+        ColorBitboards = colorBitboards.clone();
+        TypeBitboards = typeBitboards.clone();
+        WhoseTurn = whoseTurn;
+        CastlingRights = castlingRights;
+        EnPassantSquare = enPassantSquare;
+        TurnCount = turnCount;
+        GameState = gameState;
+        this.isGameActive = isGameActive;
+        PositionHash = positionHash;
+        Positions = positions;
+        PositionCount = positionCount;
+    }
+
+    /**
+     * Builds a new Game at the snapshot position
+     * @return new Game instance, without listeners or timer
+     */
+    public Game toGame() { return new Game(this); }
+
+    // getters
+    public int getWhoseTurn() { return WhoseTurn; }
+    public int getGameStateCode() { return GameState; }
+    public boolean isGameActive() { return isGameActive; }
+    public int getMoveNumber() { return (2 + TurnCount) / 2; }
+
+    /**
+     * @return Zobrist hash of the position, see Game.getPositionHash()
+     */
+    public long getPositionHash() { return PositionHash; }
+}
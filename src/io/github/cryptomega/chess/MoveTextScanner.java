@@ -0,0 +1,188 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess;
+
+/**
+ * Scans move text without regular expressions or allocation.
+ * Accepts the same text as Game.REGEX_CASTLE, Game.REGEX_MOVE_FULL and
+ * Game.REGEX_MOVE_DISAMB, tried in that order, and reports the same
+ * parts the regex groups would have captured. The result of the last
+ * scan is kept in the fields, so one instance is reused per Game.
+ */
+final class MoveTextScanner
+{
+    // kinds of move text
+    static final int UNRECOGNIZED     = 0;
+    static final int CASTLE_KINGSIDE  = 1;
+    static final int CASTLE_QUEENSIDE = 2;
+    static final int COORDINATE       = 3; // from and to squares, "e2e4", "a7-a8=Q"
+    static final int ALGEBRAIC        = 4; // piece, location and to square, "Nge2", "exd5"
+
+    static final char NONE = ' ';
+
+    int Kind = UNRECOGNIZED;
+    int FromSquare;         // COORDINATE only, 8*inRank + inFile
+    int ToSquare;           // COORDINATE and ALGEBRAIC
+    char PieceType = NONE;  // ALGEBRAIC only. KING, QUEEN, ... or NONE for a pawn
+    char Location = NONE;   // ALGEBRAIC only. file 'a'-'h' or rank '1'-'8' of the piece, or NONE
+    char Promotion = NONE;  // promotion piece as written, or NONE
+
+    // characters of the move being scanned are move[Begin] ... move[End-1]
+    private int Begin;
+    private int End;
+
+    /**
+     * Scans move text
+     * @param move move text
+     * @return the kind of move found, also left in Kind
+     */
+    int scan(CharSequence move) { return scan(move, 0, move.length()); }
+
+    /**
+     * Scans part of a move text
+     * @param move move text
+     * @param begin index of the first character of the move
+     * @param end index after the last character of the move
+     * @return the kind of move found, also left in Kind
+     */
+    int scan(CharSequence move, int begin, int end)
+    {
+        Begin = begin;
+        End = end;
+        PieceType = NONE;
+        Location = NONE;
+        Promotion = NONE;
+        if ( scanCastle(move) || scanCoordinate(move) || scanAlgebraic(move) )
+            return Kind;
+        Kind = UNRECOGNIZED;
+        return Kind;
+    }
+
+    // REGEX_CASTLE: first "O-O" anywhere, queenside if the "-O" repeats
+    private boolean scanCastle(CharSequence move)
+    {
+        int length = End;
+        for ( int i = Begin; i + 2 < length; i++ )
+        {
+            if ( !isCastleChar(move.charAt(i)) || move.charAt(i+1) != '-'
+                    || !isCastleChar(move.charAt(i+2)) )
+                continue;
+            boolean queenside = i + 4 < length && move.charAt(i+3) == '-'
+                    && move.charAt(i+4) == move.charAt(i+2);
+            Kind = queenside ? CASTLE_QUEENSIDE : CASTLE_KINGSIDE;
+            return true;
+        }
+        return false;
+    }
+
+    // REGEX_MOVE_FULL: the last square, and the last square before it
+    private boolean scanCoordinate(CharSequence move)
+    {
+        if ( indexOfLineTerminator(move, Begin) != -1 )
+            return false;
+        int to = lastSquareIndex(move, Begin, End);
+        if ( to == -1 )
+            return false;
+        int from = lastSquareIndex(move, Begin, to - 1);
+        if ( from == -1 )
+            return false;
+        Kind = COORDINATE;
+        FromSquare = squareAt(move, from);
+        ToSquare = squareAt(move, to);
+        Promotion = promotionAfter(move, to + 2);
+        return true;
+    }
+
+    // REGEX_MOVE_DISAMB: skip to the first piece letter or file,
+    // then an optional piece, an optional location and the last square
+    private boolean scanAlgebraic(CharSequence move)
+    {
+        int length = End;
+        int start = Begin;
+        while ( start < length && !isPieceChar(move.charAt(start)) && !isFileChar(move.charAt(start)) )
+            start++;
+
+        // try the longest reading first, as the regex would
+        int afterPiece = start;
+        char piece = NONE;
+        if ( start < length && isPieceChar(move.charAt(start)) )
+        {   piece = move.charAt(start);
+            afterPiece++;
+        }
+        if ( afterPiece < length && isLocationChar(move.charAt(afterPiece))
+                && scanToSquare(move, afterPiece + 1) )
+        {   PieceType = piece;
+            Location = move.charAt(afterPiece);
+            return true;
+        }
+        if ( scanToSquare(move, afterPiece) )
+        {   PieceType = piece;
+            return true;
+        }
+        if ( piece != NONE && scanToSquare(move, start) )
+            return true; // piece letter not followed by a square it can use
+        return false;
+    }
+
+    // finds the last square at or after index, with no line breaks after index
+    private boolean scanToSquare(CharSequence move, int index)
+    {
+        if ( indexOfLineTerminator(move, index) != -1 )
+            return false;
+        int to = lastSquareIndex(move, index, End);
+        if ( to == -1 )
+            return false;
+        Kind = ALGEBRAIC;
+        ToSquare = squareAt(move, to);
+        Promotion = promotionAfter(move, to + 2);
+        return true;
+    }
+
+    // optional '=' then an optional promotion piece
+    private char promotionAfter(CharSequence move, int index)
+    {
+        int length = End;
+        if ( index < length && move.charAt(index) == '=' )
+            index++;
+        if ( index < length && isPromotionChar(move.charAt(index)) )
+            return move.charAt(index);
+        return NONE;
+    }
+
+    /**
+     * @return index of the last square starting between begin and end,
+     *          both inclusive, or -1
+     */
+    private int lastSquareIndex(CharSequence move, int begin, int end)
+    {
+        for ( int i = Math.min(end, End - 2); i >= begin; i-- )
+            if ( isFileChar(move.charAt(i)) && isRankChar(move.charAt(i+1)) )
+                return i;
+        return -1;
+    }
+
+    private static int squareAt(CharSequence move, int index)
+    {   return Bitboard.squareOf( move.charAt(index+1) - '1', move.charAt(index) - 'a' ); }
+
+    private int indexOfLineTerminator(CharSequence move, int index)
+    {
+        for ( int i = index; i < End; i++ )
+            if ( isLineTerminator(move.charAt(i)) )
+                return i;
+        return -1;
+    }
+
+    // the characters '.' does not match in a regular expression
+    private static boolean isLineTerminator(char c)
+    { return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029'; }
+
+    private static boolean isCastleChar(char c) { return c == 'o' || c == 'O' || c == '0'; }
+    private static boolean isFileChar(char c) { return c >= 'a' && c <= 'h'; }
+    private static boolean isRankChar(char c) { return c >= '1' && c <= '8'; }
+    private static boolean isLocationChar(char c) { return isFileChar(c) || isRankChar(c); }
+    private static boolean isPieceChar(char c)
+    { return c == 'P' || c == 'R' || c == 'N' || c == 'B' || c == 'Q' || c == 'K'; }
+    private static boolean isPromotionChar(char c)
+    { return "qbnrQBNR".indexOf(c) != -1; }
+}
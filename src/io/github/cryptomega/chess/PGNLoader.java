@@ -61,11 +61,13 @@ public class PGNLoader
         myGame.whitePlayer = aGame.getWhite();
         myGame.blackPlayer = aGame.getBlack();
         myGame.GameResult = aGame.getResult();
-        myGame.startingFEN = aGame.getFEN();
-
-        // TODO: check FEN
+        String fen = aGame.getFEN();
         
-        myGame.setupStandardGame();
+        // start from the FEN tag if there is one
+        if ( fen != null && !fen.trim().isEmpty() )
+            myGame.setupFENGame( fen.trim() );
+        else
+            myGame.setupStandardGame();
         myGame.startGame();
         
                 
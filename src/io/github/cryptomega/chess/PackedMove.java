@@ -0,0 +1,93 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess;
+
+/**
+ * Static helpers for moves packed into a single int, as written by
+ * Game.generateLegalMoves(int[]).
+ *
+ *  bits  0-5   from square  (8*inRank + inFile, a1 = 0 ... h8 = 63)
+ *  bits  6-11  to square
+ *  bits 12-14  promotion piece type index, 0 if no promotion
+ *  bits 16-20  flags, see CAPTURE, EN_PASSANT, DOUBLE_PAWN_PUSH,
+ *              CASTLE_KINGSIDE and CASTLE_QUEENSIDE
+ *
+ * Castling moves are encoded as the king moving two squares.
+ */
+public final class PackedMove
+{
+    public static final int NO_MOVE = 0;
+
+    // flags
+    public static final int CAPTURE          = 1 << 16;
+    public static final int EN_PASSANT       = 1 << 17;
+    public static final int DOUBLE_PAWN_PUSH = 1 << 18;
+    public static final int CASTLE_KINGSIDE  = 1 << 19;
+    public static final int CASTLE_QUEENSIDE = 1 << 20;
+
+    private static final int SQUARE_MASK = 0x3F;
+    private static final int TO_SHIFT = 6;
+    private static final int PROMOTION_SHIFT = 12;
+    private static final int PROMOTION_MASK = 0x7;
+
+    private PackedMove() { }
+
+    /**
+     * Packs a move into an int
+     * @param from from square, 8*inRank + inFile
+     * @param to to square, 8*inRank + inFile
+     * @param promotionIndex type index of the promotion piece, or 0
+     * @param flags any of the flag constants or'ed together
+     * @return the packed move
+     */
+    static int pack(int from, int to, int promotionIndex, int flags)
+    { return from | (to << TO_SHIFT) | (promotionIndex << PROMOTION_SHIFT) | flags; }
+
+    public static int getFromSquare(int move) { return move & SQUARE_MASK; }
+    public static int getToSquare(int move) { return (move >>> TO_SHIFT) & SQUARE_MASK; }
+
+    /**
+     * @return chess rank 1-8 of the from square
+     */
+    public static int getFromRank(int move) { return (getFromSquare(move) >>> 3) + 1; }
+    /**
+     * @return chess file 1-8 of the from square
+     */
+    public static int getFromFile(int move) { return (getFromSquare(move) & 7) + 1; }
+    public static int getToRank(int move) { return (getToSquare(move) >>> 3) + 1; }
+    public static int getToFile(int move) { return (getToSquare(move) & 7) + 1; }
+
+    static int getPromotionIndex(int move) { return (move >>> PROMOTION_SHIFT) & PROMOTION_MASK; }
+
+    /**
+     * @return QUEEN, ROOK, BISHOP or KNIGHT, or ' ' if the move is not a promotion
+     */
+    public static char getPromotionType(int move)
+    {
+        int index = getPromotionIndex(move);
+        return ( index == 0 ) ? ' ' : Game.getTypeOfIndex(index);
+    }
+
+    public static boolean isPromotion(int move) { return getPromotionIndex(move) != 0; }
+    public static boolean isCapture(int move) { return (move & CAPTURE) != 0; }
+    public static boolean isEnPassant(int move) { return (move & EN_PASSANT) != 0; }
+    public static boolean isDoublePawnPush(int move) { return (move & DOUBLE_PAWN_PUSH) != 0; }
+    public static boolean isCastle(int move)
+    { return (move & (CASTLE_KINGSIDE | CASTLE_QUEENSIDE)) != 0; }
+
+    /**
+     * Gets the move in coordinate notation
+     * @param move packed move
+     * @return example: "e2e4", "e7e8q"
+     */
+    public static String toString(int move)
+    {
+        StringBuilder sb = new StringBuilder(5);
+        sb.append( (char)('a' + (getFromSquare(move) & 7)) ).append( getFromRank(move) );
+        sb.append( (char)('a' + (getToSquare(move) & 7)) ).append( getToRank(move) );
+        if ( isPromotion(move) )
+            sb.append( Character.toLowerCase(getPromotionType(move)) );
+        return sb.toString();
+    }
+}
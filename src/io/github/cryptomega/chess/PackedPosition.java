@@ -0,0 +1,194 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess;
+
+import chesspresso.Chess;
+import chesspresso.position.FEN;
+import chesspresso.position.IllegalPositionException;
+import chesspresso.position.ImmutablePosition;
+import chesspresso.position.Position;
+
+/**
+ * A position packed into four longs, made by Game.toPackedPosition().
+ * Immutable and independent of any Game, so it can key caches, be
+ * passed between threads and be stored in large numbers.
+ *
+ *  Occupied    bitboard of occupied squares (a1 = bit 0 ... h8 = bit 63)
+ *  Pieces0/1   4 bits per occupied square, in square order: the
+ *              chesspresso stone - Chess.MIN_STONE. Up to 32 pieces
+ *  Flags       bit 0 black to play, bits 1-4 castles as in
+ *              ImmutablePosition, bits 5-11 en passant square + 1,
+ *              bits 12-27 halfmove clock, bits 28-59 ply number
+ *
+ * Implements chesspresso's ImmutablePosition, so it can be used
+ * wherever chesspresso expects a position. toPosition() and
+ * valueOf(ImmutablePosition) convert to and from chesspresso.
+ */
+public final class PackedPosition implements ImmutablePosition
+{
+    public static final int MAX_PIECES = 32;
+
+    private static final int PIECES_PER_WORD = 16;
+    private static final int TO_PLAY_BLACK = 1;
+    private static final int CASTLES_SHIFT = 1;
+    private static final long CASTLES_MASK = 0xFL;
+    private static final int SQI_EP_SHIFT = 5;
+    private static final long SQI_EP_MASK = 0x7FL;
+    private static final int HALF_MOVE_CLOCK_SHIFT = 12;
+    private static final long HALF_MOVE_CLOCK_MASK = 0xFFFFL;
+    private static final int PLY_NUMBER_SHIFT = 28;
+    private static final long PLY_NUMBER_MASK = 0xFFFFFFFFL;
+
+    // chesspresso piece of each Game type index, and back
+    private static final int[] PIECES_BY_TYPE_INDEX
+            = { Chess.PAWN, Chess.KNIGHT, Chess.BISHOP, Chess.ROOK, Chess.QUEEN, Chess.KING };
+    private static final int[] TYPE_INDEXES_BY_PIECE = new int[Chess.MAX_PIECE + 1];
+    static
+    {
+        for ( int i = 0; i < PIECES_BY_TYPE_INDEX.length; i++ )
+            TYPE_INDEXES_BY_PIECE[PIECES_BY_TYPE_INDEX[i]] = i;
+    }
+
+    private final long Occupied;
+    private final long Pieces0;
+    private final long Pieces1;
+    private final long Flags;
+
+    private PackedPosition(long occupied, long pieces0, long pieces1, long flags)
+    {
+        Occupied = occupied;
+        Pieces0 = pieces0;
+        Pieces1 = pieces1;
+        Flags = flags;
+    }
+
+    /**
+     * Packs a position
+     * @param stones chesspresso stone on each square, Chess.NO_STONE if empty
+     * @param toPlay Chess.WHITE or Chess.BLACK
+     * @param castles castles as in ImmutablePosition
+     * @param sqiEP en passant square or Chess.NO_SQUARE
+     * @param halfMoveClock plies since the last pawn move or capture
+     * @param plyNumber plies played since the start of the game
+     * @return the packed position
+     */
+    static PackedPosition pack(int[] stones, int toPlay, int castles, int sqiEP,
+            int halfMoveClock, int plyNumber)
+    {
+        long occupied = 0L;
+        long[] words = new long[2];
+        int count = 0;
+        for ( int sqi = 0; sqi < Chess.NUM_OF_SQUARES; sqi++ )
+        {
+            if ( stones[sqi] == Chess.NO_STONE ) continue;
+            if ( count == MAX_PIECES )
+                throw new IllegalArgumentException("Cannot pack more than " + MAX_PIECES + " pieces");
+            occupied |= 1L << sqi;
+            words[count / PIECES_PER_WORD]
+                    |= (long)(stones[sqi] - Chess.MIN_STONE) << (4 * (count % PIECES_PER_WORD));
+            count++;
+        }
+        long flags = ( (toPlay == Chess.BLACK) ? TO_PLAY_BLACK : 0 )
+                | ( (castles & CASTLES_MASK) << CASTLES_SHIFT )
+                | ( ((sqiEP - Chess.NO_SQUARE) & SQI_EP_MASK) << SQI_EP_SHIFT )
+                | ( (halfMoveClock & HALF_MOVE_CLOCK_MASK) << HALF_MOVE_CLOCK_SHIFT )
+                | ( (plyNumber & PLY_NUMBER_MASK) << PLY_NUMBER_SHIFT );
+        return new PackedPosition(occupied, words[0], words[1], flags);
+    }
+
+    /**
+     * Packs any chesspresso position, such as a Position or CompactPosition
+     * @param position position to pack
+     * @return the packed position
+     */
+    public static PackedPosition valueOf(ImmutablePosition position)
+    {
+        if ( position instanceof PackedPosition )
+            return (PackedPosition)position;
+        int[] stones = new int[Chess.NUM_OF_SQUARES];
+        for ( int sqi = 0; sqi < Chess.NUM_OF_SQUARES; sqi++ )
+            stones[sqi] = position.getStone(sqi);
+        return pack(stones, position.getToPlay(), position.getCastles(), position.getSqiEP(),
+                position.getHalfMoveClock(), position.getPlyNumber());
+    }
+
+    /**
+     * @return a new chesspresso Position with the same contents
+     */
+    public Position toPosition() { return new Position(this); }
+
+    /**
+     * @return a new Game set up at this position. Call startGame() to begin
+     */
+    public Game toGame() { return Game.fromPackedPosition(this); }
+
+    // conversions between Game pieces and chesspresso stones
+    static int getStoneOf(int color, int typeIndex)
+    {   return Chess.pieceToStone( PIECES_BY_TYPE_INDEX[typeIndex],
+                (color == Game.WHITE) ? Chess.WHITE : Chess.BLACK );
+    }
+    static int getColorOfStone(int stone)
+    { return ( Chess.stoneToColor(stone) == Chess.WHITE ) ? Game.WHITE : Game.BLACK; }
+    static int getTypeIndexOfStone(int stone)
+    { return TYPE_INDEXES_BY_PIECE[Chess.stoneToPiece(stone)]; }
+
+    // ImmutablePosition
+    @Override
+    public int getStone(int sqi)
+    {
+        long mask = 1L << sqi;
+        if ( (Occupied & mask) == 0L )
+            return Chess.NO_STONE;
+        int index = Long.bitCount( Occupied & (mask - 1) );
+        long word = ( index < PIECES_PER_WORD ) ? Pieces0 : Pieces1;
+        return (int)( (word >>> (4 * (index % PIECES_PER_WORD))) & 0xF ) + Chess.MIN_STONE;
+    }
+
+    @Override
+    public int getSqiEP() { return (int)( (Flags >>> SQI_EP_SHIFT) & SQI_EP_MASK ) + Chess.NO_SQUARE; }
+    @Override
+    public int getCastles() { return (int)( (Flags >>> CASTLES_SHIFT) & CASTLES_MASK ); }
+    @Override
+    public int getToPlay() { return ( (Flags & TO_PLAY_BLACK) != 0L ) ? Chess.BLACK : Chess.WHITE; }
+    @Override
+    public int getPlyNumber() { return (int)( (Flags >>> PLY_NUMBER_SHIFT) & PLY_NUMBER_MASK ); }
+    @Override
+    public int getHalfMoveClock()
+    { return (int)( (Flags >>> HALF_MOVE_CLOCK_SHIFT) & HALF_MOVE_CLOCK_MASK ); }
+
+    @Override
+    public String getFEN() { return FEN.getFEN(this); }
+
+    // chesspresso's checks and hash codes, worked out on a Position
+    @Override
+    public boolean isLegal() { return toPosition().isLegal(); }
+    @Override
+    public boolean isStartPosition() { return toPosition().isStartPosition(); }
+    @Override
+    public long getHashCode() { return toPosition().getHashCode(); }
+    @Override
+    public void validate() throws IllegalPositionException
+    { toPosition().validate(); }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if ( !(obj instanceof PackedPosition) ) return false;
+        PackedPosition other = (PackedPosition)obj;
+        return Occupied == other.Occupied && Pieces0 == other.Pieces0
+                && Pieces1 == other.Pieces1 && Flags == other.Flags;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        long hash = Occupied * 31 + Pieces0;
+        hash = hash * 31 + Pieces1;
+        hash = hash * 31 + Flags;
+        return (int)(hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public String toString() { return getFEN(); }
+}
@@ -0,0 +1,98 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess;
+
+/**
+ * Immutable set of board squares held in one long, one bit per square.
+ * Squares are numbered 8*inRank + inFile, a1 = 0, b1 = 1 ... h8 = 63,
+ * as in PackedMove. Queries and iteration do not allocate:
+ *
+ *    for ( int sq = set.first(); sq != -1; sq = set.next(sq) )
+ *        ...
+ */
+public final class SquareSet
+{
+    public static final SquareSet EMPTY = new SquareSet(0L);
+
+    private final long Mask;
+
+    private SquareSet(long mask) { Mask = mask; }
+
+    /**
+     * @param mask bit (8*inRank + inFile) set for each square in the set
+     * @return the set of squares
+     */
+    public static SquareSet valueOf(long mask)
+    { return ( mask == 0L ) ? EMPTY : new SquareSet(mask); }
+
+    /**
+     * @param chessRank 1-8
+     * @param chessFile 1-8
+     * @return square number, 8*(chessRank-1) + (chessFile-1)
+     */
+    public static int squareOf(int chessRank, int chessFile)
+    {
+        if ( !Game.isValidChessCoord(chessRank, chessFile) )
+            throw new IllegalArgumentException("Invalid coordinate argument");
+        return Bitboard.squareOf(chessRank - 1, chessFile - 1);
+    }
+
+    public long toLong() { return Mask; }
+    public int size() { return Long.bitCount(Mask); }
+    public boolean isEmpty() { return Mask == 0L; }
+
+    public boolean contains(int square)
+    { return square >= 0 && square < Bitboard.NUM_OF_SQUARES && (Mask & (1L << square)) != 0L; }
+    public boolean contains(int chessRank, int chessFile)
+    { return Game.isValidChessCoord(chessRank, chessFile) && contains(squareOf(chessRank, chessFile)); }
+
+    /**
+     * @return lowest square in the set, or -1 if empty
+     */
+    public int first()
+    { return ( Mask == 0L ) ? -1 : Bitboard.firstSquare(Mask); }
+
+    /**
+     * @param square a square, usually the last one returned
+     * @return lowest square in the set above square, or -1 if none
+     */
+    public int next(int square)
+    {
+        if ( square < 0 ) return first();
+        if ( square >= Bitboard.NUM_OF_SQUARES - 1 ) return -1;
+        long rest = Mask & (-2L << square);
+        return ( rest == 0L ) ? -1 : Bitboard.firstSquare(rest);
+    }
+
+    public SquareSet union(SquareSet other) { return valueOf(Mask | other.Mask); }
+    public SquareSet intersection(SquareSet other) { return valueOf(Mask & other.Mask); }
+    public SquareSet minus(SquareSet other) { return valueOf(Mask & ~other.Mask); }
+
+    // rank and file of a square, 1-8, and its name
+    public static int getRank(int square) { return Bitboard.rankOf(square) + 1; }
+    public static int getFile(int square) { return Bitboard.fileOf(square) + 1; }
+    public static String toString(int square)
+    { return Game.convertAlgebraicFromIn(Bitboard.rankOf(square), Bitboard.fileOf(square)); }
+
+    @Override
+    public boolean equals(Object obj)
+    { return obj instanceof SquareSet && ((SquareSet)obj).Mask == Mask; }
+
+    @Override
+    public int hashCode() { return (int)(Mask ^ (Mask >>> 32)); }
+
+    /**
+     * @return example: "[e4, d5]"
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("[");
+        for ( int sq = first(); sq != -1; sq = next(sq) )
+        {   if ( sb.length() > 1 ) sb.append(", ");
+            sb.append( toString(sq) );
+        }
+        return sb.append(']').toString();
+    }
+}
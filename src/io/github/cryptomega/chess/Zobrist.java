@@ -0,0 +1,48 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess;
+
+import java.util.Random;
+
+/**
+ * Random keys for Zobrist hashing of positions in Game.
+ * A position hash is the xor of the keys of every piece on its square,
+ * the side key when black is to move, a key for each castling right
+ * still available and the file key of the en passant square, if any.
+ * Keys come from a fixed seed so hashes are the same between runs.
+ */
+final class Zobrist
+{
+    private static final long SEED = 0x5DEECE66DL;
+
+    // [color][type index][square]
+    static final long[][][] PIECE_KEYS
+            = new long[2][Game.NUMBER_OF_TYPES][Bitboard.NUM_OF_SQUARES];
+
+    // xor'ed in when black is to move
+    static final long SIDE_KEY;
+
+    // castling rights: [color][0] kingside, [color][1] queenside
+    static final long[][] CASTLE_KEYS = new long[2][2];
+
+    // file of the en passant square
+    static final long[] EN_PASSANT_KEYS = new long[8];
+
+    static
+    {
+        Random random = new Random(SEED);
+        for ( long[][] colorKeys : PIECE_KEYS )
+            for ( long[] typeKeys : colorKeys )
+                for ( int sq = 0; sq < typeKeys.length; sq++ )
+                    typeKeys[sq] = random.nextLong();
+        SIDE_KEY = random.nextLong();
+        for ( long[] colorKeys : CASTLE_KEYS )
+            for ( int i = 0; i < colorKeys.length; i++ )
+                colorKeys[i] = random.nextLong();
+        for ( int i = 0; i < EN_PASSANT_KEYS.length; i++ )
+            EN_PASSANT_KEYS[i] = random.nextLong();
+    }
+
+    private Zobrist() { }
+}
@@ -0,0 +1,473 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess.engine;
+
+import io.github.cryptomega.chess.Game;
+import io.github.cryptomega.chess.PackedMove;
+
+/**
+ * Iterative deepening principal variation search over the Game rules.
+ * The search runs on a private copy of the game, using
+ * generateLegalMoves(int[]) and doMove()/undoMove(), so the game
+ * passed in is never changed and nothing is allocated per node.
+ *
+ *    Engine engine = new Engine();
+ *    engine.makeMove(game);  // plays a move within the game's time budget
+ *
+ * Results are kept in a TranspositionTable, which several engines
+ * may share. An Engine searches one game at a time. stop() may be
+ * called from another thread.
+ */
+public class Engine
+{
+    public static final int MAX_PLY = 64;
+    public static final int MATE_SCORE = 32000;
+    public static final int INFINITE_SCORE = MATE_SCORE + 1;
+    public static final int DRAW_SCORE = 0;
+    public static final int PAWN_VALUE = 100;   // centipawns
+
+    // fraction of the remaining time spent on one move, and of the increment
+    private static final int MOVES_TO_GO = 30;
+    private static final double INCREMENT_SHARE = 0.75;
+    private static final long MIN_MOVE_MILLIS = 50;
+    private static final long UNTIMED_MOVE_MILLIS = 1000;
+    private static final int NODES_BETWEEN_TIME_CHECKS = 1024;  // power of 2
+
+    private final TranspositionTable Table;
+    private final MoveOrderer Orderer = new MoveOrderer();
+    private final Evaluator Evaluation = new Evaluator();
+    private final int[][] MoveBuffers = new int[MAX_PLY][Game.MAX_LEGAL_MOVES];
+    private final int[][] MoveScores = new int[MAX_PLY][Game.MAX_LEGAL_MOVES];
+    // triangular principal variation table, line from ply i in PvTable[i]
+    private final int[][] PvTable = new int[MAX_PLY][MAX_PLY];
+    private final int[] PvLength = new int[MAX_PLY];
+    // principal variation of the last completed iteration, searched first
+    private final int[] PreviousPv = new int[MAX_PLY];
+    private int PreviousPvLength;
+    private boolean isFollowingPv;
+
+    private Game Board;
+    private long Nodes;
+    private long TableHits;    // kept per engine, the table is shared
+    private long TableMisses;
+    private long TableStores;
+    private long StartNanos;
+    private long DeadlineNanos;
+    private volatile boolean isStopped;
+    private boolean isHelper = false;  // searches until stopped, for ParallelSearch
+    private SearchListener Listener = null;
+    private SearchInfo LastInfo = null;
+    private PolyglotBook Book = null;
+
+    /**
+     * Creates an engine with its own transposition table of
+     * TranspositionTable.DEFAULT_MEGABYTES
+     */
+    public Engine()
+    { this( new TranspositionTable(TranspositionTable.DEFAULT_MEGABYTES) ); }
+
+    /**
+     * Creates an engine that keeps its results in a given table
+     * @param table transposition table, may be shared with other engines
+     */
+    public Engine(TranspositionTable table)
+    { Table = table; }
+
+    public TranspositionTable getTranspositionTable() { return Table; }
+
+    /**
+     * @return nodes searched by the last or current search
+     */
+    public long getNodes() { return Nodes; }
+
+    /**
+     * @return transposition table probes of the last or current search
+     *          that found the position
+     */
+    public long getTableHits() { return TableHits; }
+    public long getTableMisses() { return TableMisses; }
+    public long getTableStores() { return TableStores; }
+
+    /**
+     * Registers a listener for search progress. Pass null to remove it
+     * @param listener listener, or null
+     */
+    public void setSearchListener(SearchListener listener)
+    { Listener = listener; }
+
+    /**
+     * @return report of the last completed iteration of the last search,
+     *          or null if no iteration completed
+     */
+    public SearchInfo getLastInfo() { return LastInfo; }
+
+    /**
+     * Sets an opening book. While the game is in the book, search()
+     * plays a book move at once instead of searching
+     * @param book opening book, or null for none
+     */
+    public void setOpeningBook(PolyglotBook book) { Book = book; }
+    public PolyglotBook getOpeningBook() { return Book; }
+
+    /**
+     * Stops a running search. It returns the best move found so far
+     */
+    public void stop() { isStopped = true; }
+
+    /**
+     * Searches the game and plays the best move found
+     * @param game active game
+     * @return move code from Game.makePackedMove(), or MOVE_ILLEGAL if
+     *          the game is over
+     */
+    public int makeMove(Game game)
+    {
+        int move = search(game);
+        if ( move == PackedMove.NO_MOVE ) return Game.MOVE_ILLEGAL;
+        return game.makePackedMove(move);
+    }
+
+    /**
+     * Searches the game within its time budget, see getTimeBudgetMillis()
+     * @param game game to search. It is not changed
+     * @return best move found, or PackedMove.NO_MOVE if the game is over
+     */
+    public int search(Game game)
+    { return search(game, getTimeBudgetMillis(game), MAX_PLY - 1); }
+
+    /**
+     * Searches the game with iterative deepening until the time runs
+     * out, the depth is reached, a mate is found or stop() is called.
+     * A move from the opening book, if any, is returned without a search
+     * @param game game to search. It is not changed
+     * @param millis time limit in milliseconds
+     * @param maxDepth depth limit in plies
+     * @return best move found, or PackedMove.NO_MOVE if the game is over
+     */
+    public int search(Game game, long millis, int maxDepth)
+    {
+        int bookMove = getBookMoveIn(game);
+        if ( bookMove != PackedMove.NO_MOVE ) return bookMove;
+        isStopped = false;
+        Table.newSearch();
+        return searchIn(game, millis, 1, maxDepth);
+    }
+
+    /**
+     * Makes this engine a helper thread of a ParallelSearch. A helper does
+     * not report progress and keeps deepening until it is stopped
+     */
+    void setHelper(boolean helper) { isHelper = helper; }
+
+    // lets stop() called before the next searchIn() stop it
+    void clearStop() { isStopped = false; }
+
+    // a move from the book, or NO_MOVE when out of book. A book move
+    // leaves no search report
+    int getBookMoveIn(Game game)
+    {
+        if ( Book == null || !game.isGameActive() ) return PackedMove.NO_MOVE;
+        int move = Book.getMove(game);
+        if ( move != PackedMove.NO_MOVE ) LastInfo = null;
+        return move;
+    }
+
+    // iterative deepening from firstDepth. The caller clears the stop
+    // flag and starts a new search in the table
+    int searchIn(Game game, long millis, int firstDepth, int maxDepth)
+    {
+        StartNanos = System.nanoTime();
+        DeadlineNanos = StartNanos + millis*1000000L;
+        Nodes = TableHits = TableMisses = TableStores = 0;
+        LastInfo = null;
+        PreviousPvLength = 0;
+        if ( !game.isGameActive() ) return PackedMove.NO_MOVE;
+
+        Board = new Game(game);
+        Evaluation.reset(Board);
+        Orderer.newSearch();
+        int[] rootMoves = new int[Game.MAX_LEGAL_MOVES];
+        int count = Board.generateLegalMoves(rootMoves);
+        if ( count == 0 ) return PackedMove.NO_MOVE;
+
+        int bestMove = rootMoves[0];
+        maxDepth = Math.max(1, Math.min(maxDepth, MAX_PLY - 1));
+        for ( int depth = Math.min(firstDepth, maxDepth); depth <= maxDepth; depth++ )
+        {
+            isFollowingPv = true;
+            int score = searchRoot(rootMoves, count, depth);
+            // the first root move is the previous best, so any move that
+            // beat it in an unfinished iteration is still an improvement
+            if ( PvLength[0] > 0 ) bestMove = PvTable[0][0];
+            if ( isStopped ) break;
+
+            PreviousPvLength = PvLength[0];
+            System.arraycopy(PvTable[0], 0, PreviousPv, 0, PreviousPvLength);
+            LastInfo = new SearchInfo(depth, score, Nodes, getElapsedMillis(),
+                    PreviousPv, PreviousPvLength);
+            if ( isHelper ) continue;
+            if ( Listener != null ) Listener.onSearchInfo(LastInfo);
+
+            // one reply or a forced mate needs no deeper search, and the
+            // next iteration would not finish in the time that is left
+            if ( count == 1 || isMateScore(score) ) break;
+            if ( 2*(System.nanoTime() - StartNanos) > DeadlineNanos - StartNanos ) break;
+        }
+        Board = null;
+        return bestMove;
+    }
+
+    /**
+     * Gets the time to spend on the next move, from the game's timer
+     * settings: a share of the remaining time plus most of the increment.
+     * Untimed games use the starting time the timer would have had.
+     * @param game game to move in
+     * @return time budget in milliseconds
+     */
+    public static long getTimeBudgetMillis(Game game)
+    {
+        double increment = game.getIncrementSeconds();
+        double remaining = game.isTimed() ? game.getSecondsRemaining()
+                : 60.0*game.getStartingMinutes();
+        if ( remaining <= 0.0 && increment <= 0.0 )
+            return UNTIMED_MOVE_MILLIS;
+        double seconds = Math.min( remaining / MOVES_TO_GO + INCREMENT_SHARE*increment,
+                remaining / 2 );
+        return Math.max( MIN_MOVE_MILLIS, (long)(1000.0*seconds) );
+    }
+
+    /**
+     * @param score a search score
+     * @return true if the score is a forced mate for either side
+     */
+    public static boolean isMateScore(int score)
+    { return Math.abs(score) >= MATE_SCORE - MAX_PLY; }
+
+    // searches the root moves with a full window, moving each new best
+    // move to the front so the next iteration searches it first
+    private int searchRoot(int[] moves, int count, int depth)
+    {
+        int alpha = -INFINITE_SCORE;
+        int beta = INFINITE_SCORE;
+        PvLength[0] = 0;
+        for ( int i = 0; i < count; i++ )
+        {
+            int move = moves[i];
+            makeMoveIn(move, 0);
+            int score;
+            if ( i == 0 )
+                score = -search(depth - 1, 1, -beta, -alpha);
+            else
+            {   score = -search(depth - 1, 1, -alpha - 1, -alpha);
+                if ( score > alpha && !isStopped )
+                    score = -search(depth - 1, 1, -beta, -alpha);
+            }
+            undoMoveIn(0);
+            if ( isStopped ) break;
+
+            if ( score > alpha )
+            {   alpha = score;
+                updatePvIn(0, move);
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+            }
+        }
+        return alpha;
+    }
+
+    private int search(int depth, int ply, int alpha, int beta)
+    {
+        PvLength[ply] = 0;
+        if ( isStoppedAtNode() ) return 0;
+        if ( Board.getHalfMoveClock() >= 100 || Board.isRepetition() )
+            return DRAW_SCORE;
+
+        boolean inCheck = Board.isInCheck( Board.getWhoseTurn() );
+        if ( inCheck ) depth++; // check extension
+        if ( ply >= MAX_PLY - 1 )
+            return evaluate();
+        if ( depth <= 0 )
+            return quiesce(ply, alpha, beta, inCheck);
+
+        // a deep enough stored result ends the search here, except on the
+        // principal variation, which is kept whole for reporting
+        long key = Board.getPositionHash();
+        long entry = Table.probe(key);
+        if ( entry != 0L ) TableHits++;
+        else TableMisses++;
+        int hashMove = PackedMove.NO_MOVE;
+        if ( entry != 0L )
+        {   hashMove = TranspositionTable.getMove(entry);
+            if ( beta - alpha == 1 && TranspositionTable.getDepth(entry) >= depth )
+            {   int score = getScoreFromTable( TranspositionTable.getScore(entry), ply );
+                int bound = TranspositionTable.getBound(entry);
+                if ( bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+                        || (bound == TranspositionTable.UPPER_BOUND && score <= alpha) )
+                    return score;
+            }
+        }
+
+        int[] moves = MoveBuffers[ply];
+        int count = Board.generateLegalMoves(moves);
+        if ( count == 0 )
+            return inCheck ? -MATE_SCORE + ply : DRAW_SCORE;
+        int[] scores = MoveScores[ply];
+        Orderer.scoreMoves(Board, moves, scores, count, ply, getFirstMoveIn(moves, count, ply, hashMove));
+
+        int originalAlpha = alpha;
+        int bestMove = PackedMove.NO_MOVE;
+        for ( int i = 0; i < count; i++ )
+        {
+            MoveOrderer.pickBest(moves, scores, i, count);
+            makeMoveIn(moves[i], ply);
+            int score;
+            if ( i == 0 )
+                score = -search(depth - 1, ply + 1, -beta, -alpha);
+            else
+            {   // null window search, proves the move is no better
+                score = -search(depth - 1, ply + 1, -alpha - 1, -alpha);
+                if ( score > alpha && score < beta )
+                    score = -search(depth - 1, ply + 1, -beta, -alpha);
+            }
+            undoMoveIn(ply);
+            if ( isStopped ) return 0;
+
+            if ( score > alpha )
+            {   if ( score >= beta )
+                {   Orderer.addCutoff(Board.getWhoseTurn(), moves[i], ply, depth);
+                    Table.store(key, moves[i], getScoreForTable(beta, ply), depth,
+                            TranspositionTable.LOWER_BOUND);
+                    TableStores++;
+                    return beta;
+                }
+                alpha = score;
+                bestMove = moves[i];
+                updatePvIn(ply, moves[i]);
+            }
+        }
+        Table.store(key, bestMove, getScoreForTable(alpha, ply), depth, 
+                ( alpha > originalAlpha ) ? TranspositionTable.EXACT : TranspositionTable.UPPER_BOUND);
+        TableStores++;
+        return alpha;
+    }
+
+    // mate scores count plies from the root, but are stored counting
+    // from the position, which can be reached at any ply
+    private static int getScoreForTable(int score, int ply)
+    {
+        if ( score >= MATE_SCORE - MAX_PLY ) return score + ply;
+        if ( score <= -MATE_SCORE + MAX_PLY ) return score - ply;
+        return score;
+    }
+
+    private static int getScoreFromTable(int score, int ply)
+    {
+        if ( score >= MATE_SCORE - MAX_PLY ) return score - ply;
+        if ( score <= -MATE_SCORE + MAX_PLY ) return score + ply;
+        return score;
+    }
+
+    // searches captures until the position is quiet, so it is not
+    // evaluated in the middle of an exchange. The side to move may stand
+    // pat on the evaluation instead, except in check, where every
+    // evasion is searched. Captures that lose material by static
+    // exchange, and under-promotions, are not searched.
+    private int quiesce(int ply, int alpha, int beta, boolean inCheck)
+    {
+        int[] moves = MoveBuffers[ply];
+        int[] scores = MoveScores[ply];
+        int count = 0;
+        if ( inCheck )
+        {   count = Board.generateLegalMoves(moves);
+            if ( count == 0 ) return -MATE_SCORE + ply;
+            for ( int i = 0; i < count; i++ )
+                scores[i] = 0;
+        }
+        else
+        {   int standPat = evaluate();
+            if ( standPat >= beta ) return beta;
+            if ( standPat > alpha ) alpha = standPat;
+            int generated = Board.generateLegalCaptures(moves);
+            for ( int i = 0; i < generated; i++ )
+            {   int move = moves[i];
+                if ( PackedMove.isPromotion(move) && PackedMove.getPromotionType(move) != Game.QUEEN )
+                    continue;
+                int gain = Board.getStaticExchange(move);
+                if ( gain < 0 ) continue;
+                moves[count] = move;
+                scores[count++] = gain;
+            }
+        }
+
+        for ( int i = 0; i < count; i++ )
+        {
+            MoveOrderer.pickBest(moves, scores, i, count);
+            makeMoveIn(moves[i], ply);
+            int score = -quiesceChild(ply + 1, -beta, -alpha);
+            undoMoveIn(ply);
+            if ( isStopped ) return 0;
+            if ( score > alpha )
+            {   if ( score >= beta ) return beta;
+                alpha = score;
+            }
+        }
+        return alpha;
+    }
+
+    private int quiesceChild(int ply, int alpha, int beta)
+    {
+        PvLength[ply] = 0;
+        if ( isStoppedAtNode() ) return 0;
+        if ( ply >= MAX_PLY - 1 ) return evaluate();
+        return quiesce(ply, alpha, beta, Board.isInCheck( Board.getWhoseTurn() ));
+    }
+
+    // counts a node, and checks the clock every NODES_BETWEEN_TIME_CHECKS nodes
+    private boolean isStoppedAtNode()
+    {
+        if ( (++Nodes & (NODES_BETWEEN_TIME_CHECKS - 1)) == 0
+                && System.nanoTime() >= DeadlineNanos )
+            isStopped = true;
+        return isStopped;
+    }
+
+    // material, piece-square and pawn structure score for the side to move
+    private int evaluate() { return Evaluation.evaluate(Board); }
+
+    // the evaluator's scores follow every move made on the board
+    private void makeMoveIn(int move, int ply)
+    {
+        Evaluation.makeMove(Board, move, ply);
+        Board.doMove(move);
+    }
+
+    private void undoMoveIn(int ply)
+    {
+        Board.undoMove();
+        Evaluation.undoMove(ply);
+    }
+
+    // the move of the previous principal variation while still on it,
+    // otherwise the move from the transposition table
+    private int getFirstMoveIn(int[] moves, int count, int ply, int hashMove)
+    {
+        if ( !isFollowingPv ) return hashMove;
+        isFollowingPv = ply < PreviousPvLength
+                && MoveOrderer.contains(moves, count, PreviousPv[ply]);
+        return isFollowingPv ? PreviousPv[ply] : hashMove;
+    }
+
+    // the line from ply is move followed by the line from ply + 1
+    private void updatePvIn(int ply, int move)
+    {
+        PvTable[ply][0] = move;
+        int length = PvLength[ply + 1];
+        System.arraycopy(PvTable[ply + 1], 0, PvTable[ply], 1, length);
+        PvLength[ply] = length + 1;
+    }
+
+    private long getElapsedMillis()
+    { return (System.nanoTime() - StartNanos) / 1000000L; }
+}
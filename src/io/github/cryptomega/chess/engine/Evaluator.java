@@ -0,0 +1,327 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess.engine;
+
+import io.github.cryptomega.chess.Game;
+import io.github.cryptomega.chess.PackedMove;
+
+/**
+ * Static evaluation: material and piece-square scores, kept up to date
+ * as the search makes and takes back moves instead of being summed over
+ * the board at every leaf, plus a pawn structure score cached in a pawn
+ * hash table.
+ *
+ * Scores are kept for the middlegame and the endgame and blended by the
+ * game phase, counted from the knights, bishops, rooks and queens left.
+ * The pawn structure terms, passed, doubled and isolated pawns, depend
+ * only on where the pawns are, and the pawns rarely move in a search, so
+ * they are computed once per pawn placement and looked up by the pawn
+ * bitboards of both colors.
+ *
+ * The engine calls makeMove() before each Game.doMove() and undoMove()
+ * after each Game.undoMove(), with the ply of the position moved from.
+ * Each engine has its own evaluator, so nothing here is shared between
+ * threads.
+ */
+final class Evaluator
+{
+    private static final int NUMBER_OF_SQUARES = 64;
+    private static final int NUMBER_OF_TYPES = 6;
+    private static final int PAWN_INDEX = 0, KNIGHT_INDEX = 1, BISHOP_INDEX = 2,
+            ROOK_INDEX = 3, QUEEN_INDEX = 4, KING_INDEX = 5;
+
+    private static final int[] PIECE_VALUES = { Engine.PAWN_VALUE, 320, 330, 500, 900, 0 };
+    private static final int[] PHASE_WEIGHTS = { 0, 1, 1, 2, 4, 0 };
+    private static final int MAX_PHASE = 24;   // phase of the starting position
+
+    // piece-square tables from white's side, rank 8 first as seen on a
+    // diagram. Black's squares are mirrored
+    private static final int[] PAWN_TABLE = {
+          0,  0,  0,  0,  0,  0,  0,  0,
+         50, 50, 50, 50, 50, 50, 50, 50,
+         10, 10, 20, 30, 30, 20, 10, 10,
+          5,  5, 10, 25, 25, 10,  5,  5,
+          0,  0,  0, 20, 20,  0,  0,  0,
+          5, -5,-10,  0,  0,-10, -5,  5,
+          5, 10, 10,-20,-20, 10, 10,  5,
+          0,  0,  0,  0,  0,  0,  0,  0 };
+    private static final int[] KNIGHT_TABLE = {
+        -50,-40,-30,-30,-30,-30,-40,-50,
+        -40,-20,  0,  0,  0,  0,-20,-40,
+        -30,  0, 10, 15, 15, 10,  0,-30,
+        -30,  5, 15, 20, 20, 15,  5,-30,
+        -30,  0, 15, 20, 20, 15,  0,-30,
+        -30,  5, 10, 15, 15, 10,  5,-30,
+        -40,-20,  0,  5,  5,  0,-20,-40,
+        -50,-40,-30,-30,-30,-30,-40,-50 };
+    private static final int[] BISHOP_TABLE = {
+        -20,-10,-10,-10,-10,-10,-10,-20,
+        -10,  0,  0,  0,  0,  0,  0,-10,
+        -10,  0,  5, 10, 10,  5,  0,-10,
+        -10,  5,  5, 10, 10,  5,  5,-10,
+        -10,  0, 10, 10, 10, 10,  0,-10,
+        -10, 10, 10, 10, 10, 10, 10,-10,
+        -10,  5,  0,  0,  0,  0,  5,-10,
+        -20,-10,-10,-10,-10,-10,-10,-20 };
+    private static final int[] ROOK_TABLE = {
+          0,  0,  0,  0,  0,  0,  0,  0,
+          5, 10, 10, 10, 10, 10, 10,  5,
+         -5,  0,  0,  0,  0,  0,  0, -5,
+         -5,  0,  0,  0,  0,  0,  0, -5,
+         -5,  0,  0,  0,  0,  0,  0, -5,
+         -5,  0,  0,  0,  0,  0,  0, -5,
+         -5,  0,  0,  0,  0,  0,  0, -5,
+          0,  0,  0,  5,  5,  0,  0,  0 };
+    private static final int[] QUEEN_TABLE = {
+        -20,-10,-10, -5, -5,-10,-10,-20,
+        -10,  0,  0,  0,  0,  0,  0,-10,
+        -10,  0,  5,  5,  5,  5,  0,-10,
+         -5,  0,  5,  5,  5,  5,  0, -5,
+          0,  0,  5,  5,  5,  5,  0, -5,
+        -10,  5,  5,  5,  5,  5,  0,-10,
+        -10,  0,  5,  0,  0,  0,  0,-10,
+        -20,-10,-10, -5, -5,-10,-10,-20 };
+    private static final int[] KING_MIDDLEGAME_TABLE = {
+        -30,-40,-40,-50,-50,-40,-40,-30,
+        -30,-40,-40,-50,-50,-40,-40,-30,
+        -30,-40,-40,-50,-50,-40,-40,-30,
+        -30,-40,-40,-50,-50,-40,-40,-30,
+        -20,-30,-30,-40,-40,-30,-30,-20,
+        -10,-20,-20,-20,-20,-20,-20,-10,
+         20, 20,  0,  0,  0,  0, 20, 20,
+         20, 30, 10,  0,  0, 10, 30, 20 };
+    private static final int[] KING_ENDGAME_TABLE = {
+        -50,-40,-30,-20,-20,-30,-40,-50,
+        -30,-20,-10,  0,  0,-10,-20,-30,
+        -30,-10, 20, 30, 30, 20,-10,-30,
+        -30,-10, 30, 40, 40, 30,-10,-30,
+        -30,-10, 30, 40, 40, 30,-10,-30,
+        -30,-10, 20, 30, 30, 20,-10,-30,
+        -30,-30,  0,  0,  0,  0,-30,-30,
+        -50,-30,-30,-30,-30,-30,-30,-50 };
+
+    // pawn structure terms, middlegame and endgame
+    private static final int DOUBLED_MIDDLEGAME = -10, DOUBLED_ENDGAME = -20;
+    private static final int ISOLATED_MIDDLEGAME = -10, ISOLATED_ENDGAME = -15;
+    private static final int[] PASSED_MIDDLEGAME = { 0,  5, 10, 15, 25, 40,  60, 0 }; // by rank from own side
+    private static final int[] PASSED_ENDGAME    = { 0, 10, 20, 35, 60, 90, 130, 0 };
+
+    private static final int PAWN_HASH_BITS = 14;
+
+    // [type index][square], material included, square a1 = 0 from white's side
+    private static final int[][] MIDDLEGAME = new int[NUMBER_OF_TYPES][NUMBER_OF_SQUARES];
+    private static final int[][] ENDGAME = new int[NUMBER_OF_TYPES][NUMBER_OF_SQUARES];
+    private static final long[] FILES = new long[8];
+    private static final long[] ADJACENT_FILES = new long[8];
+    // [color][square], squares in front of a pawn on its file and the
+    // files beside, where an enemy pawn stops it being passed
+    private static final long[][] PASSED_SPANS = new long[2][NUMBER_OF_SQUARES];
+
+    static
+    {
+        int[][] middlegame = { PAWN_TABLE, KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE,
+                QUEEN_TABLE, KING_MIDDLEGAME_TABLE };
+        for ( int type = 0; type < NUMBER_OF_TYPES; type++ )
+            for ( int square = 0; square < NUMBER_OF_SQUARES; square++ )
+            {   int diagramSquare = square ^ 56;
+                MIDDLEGAME[type][square] = PIECE_VALUES[type] + middlegame[type][diagramSquare];
+                ENDGAME[type][square] = PIECE_VALUES[type] + ( (type == KING_INDEX)
+                        ? KING_ENDGAME_TABLE[diagramSquare] : middlegame[type][diagramSquare] );
+            }
+
+        for ( int file = 0; file < 8; file++ )
+            FILES[file] = 0x0101010101010101L << file;
+        for ( int file = 0; file < 8; file++ )
+            ADJACENT_FILES[file] = ( (file > 0) ? FILES[file - 1] : 0L )
+                    | ( (file < 7) ? FILES[file + 1] : 0L );
+        for ( int square = 0; square < NUMBER_OF_SQUARES; square++ )
+        {   int rank = square >>> 3;
+            long span = FILES[square & 7] | ADJACENT_FILES[square & 7];
+            long above = ( rank == 7 ) ? 0L : -1L << (8*(rank + 1));
+            long below = ( rank == 0 ) ? 0L : -1L >>> (8*(8 - rank));
+            PASSED_SPANS[Game.WHITE][square] = span & above;
+            PASSED_SPANS[Game.BLACK][square] = span & below;
+        }
+    }
+
+    private final int[] Middlegame = new int[2];  // by color
+    private final int[] Endgame = new int[2];
+    private int Phase;
+    // scores before the move made at each ply, restored by undoMove()
+    private final int[][] Saved = new int[Engine.MAX_PLY][5];
+
+    private final long[] PawnKeys = new long[2 << PAWN_HASH_BITS];  // black and white pawns
+    private final int[] PawnMiddlegame = new int[1 << PAWN_HASH_BITS];
+    private final int[] PawnEndgame = new int[1 << PAWN_HASH_BITS];
+
+    /**
+     * Sums the scores over the board, at the start of a search
+     * @param board position the search starts from
+     */
+    void reset(Game board)
+    {
+        Phase = 0;
+        for ( int color = Game.BLACK; color <= Game.WHITE; color++ )
+        {   Middlegame[color] = Endgame[color] = 0;
+            for ( int type = 0; type < NUMBER_OF_TYPES; type++ )
+            {   long pieces = board.getPieceBitboard(color, getTypeOf(type));
+                for ( ; pieces != 0L; pieces &= pieces - 1 )
+                    addPieceIn(color, type, Long.numberOfTrailingZeros(pieces));
+            }
+        }
+    }
+
+    /**
+     * Updates the scores for a move, called before the move is made
+     * @param board position before the move
+     * @param move a legal move
+     * @param ply ply of the position, for undoMove()
+     */
+    void makeMove(Game board, int move, int ply)
+    {
+        int[] saved = Saved[ply];
+        saved[0] = Middlegame[Game.BLACK];
+        saved[1] = Middlegame[Game.WHITE];
+        saved[2] = Endgame[Game.BLACK];
+        saved[3] = Endgame[Game.WHITE];
+        saved[4] = Phase;
+
+        int color = board.getWhoseTurn();
+        int from = PackedMove.getFromSquare(move);
+        int to = PackedMove.getToSquare(move);
+        int type = getIndexOf( board.getTypeOnSquare(from) );
+        if ( PackedMove.isCapture(move) )
+        {   int capturedSquare = to;
+            if ( PackedMove.isEnPassant(move) )
+                capturedSquare += ( color == Game.WHITE ) ? -8 : 8;
+            removePieceIn( Game.getOtherColor(color),
+                    getIndexOf(board.getTypeOnSquare(capturedSquare)), capturedSquare );
+        }
+        if ( PackedMove.isCastle(move) )
+        {   // the rook is the first piece out from the king
+            int direction = ( (move & PackedMove.CASTLE_KINGSIDE) != 0 ) ? 1 : -1;
+            int rookFrom = from + direction;
+            while ( board.getTypeOnSquare(rookFrom) == ' ' )
+                rookFrom += direction;
+            removePieceIn(color, ROOK_INDEX, rookFrom);
+            addPieceIn(color, ROOK_INDEX, (to & 56) + ( (direction > 0) ? 5 : 3 ));
+        }
+        removePieceIn(color, type, from);
+        addPieceIn(color, PackedMove.isPromotion(move)
+                ? getIndexOf(PackedMove.getPromotionType(move)) : type, to);
+    }
+
+    /**
+     * Restores the scores, called after the move is taken back
+     * @param ply ply the move was made at
+     */
+    void undoMove(int ply)
+    {
+        int[] saved = Saved[ply];
+        Middlegame[Game.BLACK] = saved[0];
+        Middlegame[Game.WHITE] = saved[1];
+        Endgame[Game.BLACK] = saved[2];
+        Endgame[Game.WHITE] = saved[3];
+        Phase = saved[4];
+    }
+
+    /**
+     * @param board position to evaluate, the one the scores are kept for
+     * @return score in centipawns for the side to move
+     */
+    int evaluate(Game board)
+    {
+        long whitePawns = board.getPieceBitboard(Game.WHITE, Game.PAWN);
+        long blackPawns = board.getPieceBitboard(Game.BLACK, Game.PAWN);
+        int index = getPawnEntryIn(whitePawns, blackPawns);
+
+        int middlegame = Middlegame[Game.WHITE] - Middlegame[Game.BLACK] + PawnMiddlegame[index];
+        int endgame = Endgame[Game.WHITE] - Endgame[Game.BLACK] + PawnEndgame[index];
+        int phase = Math.min(Phase, MAX_PHASE);
+        int score = ( middlegame*phase + endgame*(MAX_PHASE - phase) ) / MAX_PHASE;
+        return ( board.getWhoseTurn() == Game.WHITE ) ? score : -score;
+    }
+
+    // finds or computes the pawn structure entry for the pawns
+    private int getPawnEntryIn(long whitePawns, long blackPawns)
+    {
+        long hash = whitePawns*0x9E3779B97F4A7C15L ^ blackPawns*0xC2B2AE3D27D4EB4FL;
+        int index = (int)( hash >>> (64 - PAWN_HASH_BITS) );
+        // an empty entry holds the score of no pawns, which is 0
+        if ( PawnKeys[2*index + Game.WHITE] == whitePawns
+                && PawnKeys[2*index + Game.BLACK] == blackPawns )
+            return index;
+        PawnKeys[2*index + Game.WHITE] = whitePawns;
+        PawnKeys[2*index + Game.BLACK] = blackPawns;
+        PawnMiddlegame[index] = PawnEndgame[index] = 0;
+        addPawnTermsIn(index, Game.WHITE, whitePawns, blackPawns, 1);
+        addPawnTermsIn(index, Game.BLACK, blackPawns, whitePawns, -1);
+        return index;
+    }
+
+    private void addPawnTermsIn(int index, int color, long pawns, long enemyPawns, int sign)
+    {
+        int middlegame = 0;
+        int endgame = 0;
+        for ( int file = 0; file < 8; file++ )
+        {   int count = Long.bitCount( pawns & FILES[file] );
+            if ( count == 0 ) continue;
+            middlegame += (count - 1)*DOUBLED_MIDDLEGAME;
+            endgame += (count - 1)*DOUBLED_ENDGAME;
+            if ( (pawns & ADJACENT_FILES[file]) == 0L )
+            {   middlegame += count*ISOLATED_MIDDLEGAME;
+                endgame += count*ISOLATED_ENDGAME;
+            }
+        }
+        for ( long p = pawns; p != 0L; p &= p - 1 )
+        {   int square = Long.numberOfTrailingZeros(p);
+            if ( (enemyPawns & PASSED_SPANS[color][square]) != 0L ) continue;
+            int rank = ( color == Game.WHITE ) ? square >>> 3 : 7 - (square >>> 3);
+            middlegame += PASSED_MIDDLEGAME[rank];
+            endgame += PASSED_ENDGAME[rank];
+        }
+        PawnMiddlegame[index] += sign*middlegame;
+        PawnEndgame[index] += sign*endgame;
+    }
+
+    private void addPieceIn(int color, int type, int square)
+    {
+        int tableSquare = ( color == Game.WHITE ) ? square : square ^ 56;
+        Middlegame[color] += MIDDLEGAME[type][tableSquare];
+        Endgame[color] += ENDGAME[type][tableSquare];
+        Phase += PHASE_WEIGHTS[type];
+    }
+
+    private void removePieceIn(int color, int type, int square)
+    {
+        int tableSquare = ( color == Game.WHITE ) ? square : square ^ 56;
+        Middlegame[color] -= MIDDLEGAME[type][tableSquare];
+        Endgame[color] -= ENDGAME[type][tableSquare];
+        Phase -= PHASE_WEIGHTS[type];
+    }
+
+    private static int getIndexOf(char type)
+    {
+        switch ( type )
+        {   case Game.PAWN:   return PAWN_INDEX;
+            case Game.KNIGHT: return KNIGHT_INDEX;
+            case Game.BISHOP: return BISHOP_INDEX;
+            case Game.ROOK:   return ROOK_INDEX;
+            case Game.QUEEN:  return QUEEN_INDEX;
+            default:          return KING_INDEX;
+        }
+    }
+
+    private static char getTypeOf(int index)
+    {
+        switch ( index )
+        {   case PAWN_INDEX:   return Game.PAWN;
+            case KNIGHT_INDEX: return Game.KNIGHT;
+            case BISHOP_INDEX: return Game.BISHOP;
+            case ROOK_INDEX:   return Game.ROOK;
+            case QUEEN_INDEX:  return Game.QUEEN;
+            default:           return Game.KING;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess.engine;
+
+import io.github.cryptomega.chess.PackedMove;
+
+/**
+ * Immutable result of a MateSolver run: the shortest forced mate found,
+ * its first move, and the nodes and time the proof took.
+ */
+public final class MateResult
+{
+    private final int Moves;
+    private final int Move;
+    private final long Nodes;
+    private final long Millis;
+
+    MateResult(int moves, int move, long nodes, long millis)
+    {
+        Moves = moves;
+        Move = move;
+        Nodes = nodes;
+        Millis = millis;
+    }
+
+    /**
+     * @return true if a forced mate was proven
+     */
+    public boolean isMate() { return Moves > 0; }
+    /**
+     * @return moves of the side to move to the shortest mate, or 0 if
+     *          there is none within the limit
+     */
+    public int getMateInMoves() { return Moves; }
+    /**
+     * @return first move of the mate, or PackedMove.NO_MOVE
+     */
+    public int getMove() { return Move; }
+    public long getNodes() { return Nodes; }
+    public long getMillis() { return Millis; }
+    public long getNodesPerSecond()
+    { return ( Millis == 0 ) ? 0 : Nodes * 1000 / Millis; }
+
+    @Override
+    public String toString()
+    {
+        return ( isMate() ? "mate in " + Moves + " move " + PackedMove.toString(Move) : "no mate" )
+                + " nodes " + Nodes + " nps " + getNodesPerSecond() + " time " + Millis;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess.engine;
+
+import io.github.cryptomega.chess.Game;
+import io.github.cryptomega.chess.PackedMove;
+import java.util.Arrays;
+
+/**
+ * Proves forced mates by depth-first proof search, for checking puzzles.
+ * Unlike Engine there is no evaluation and no bounds: a position of the
+ * attacker is won in n moves if some move leaves every defence won in
+ * n - 1, and the last move must mate. The attacker tries checking moves
+ * first, and only checking moves on the mating move. Mate and stalemate
+ * are read from the number of legal moves and Game.isInCheck().
+ *
+ *    MateResult result = new MateSolver().solveMate(fen, 3);
+ *
+ * Mate lengths are tried from 1 up, so the mate found is the shortest.
+ * Attacker positions are cached by position hash with the shortest
+ * length they were proven in and the longest length they were refuted
+ * at, so each iteration reuses the proofs of the last. Draw claims by
+ * repetition or the fifty move rule are not considered. A solver is
+ * used by one thread at a time; give each worker thread its own.
+ */
+public final class MateSolver
+{
+    public static final int MAX_MATE_MOVES = 31;
+
+    private static final int CACHE_BITS = 18;
+
+    private final int[][] MoveBuffers = new int[2*MAX_MATE_MOVES][Game.MAX_LEGAL_MOVES];
+    private final long[] CacheKeys = new long[1 << CACHE_BITS];
+    private final byte[] CacheProven = new byte[1 << CACHE_BITS];   // mate in this many, 0 if unknown
+    private final byte[] CacheRefuted = new byte[1 << CACHE_BITS];  // no mate in this many or fewer
+    private Game Board;
+    private long Nodes;
+
+    /**
+     * Looks for a forced mate by the side to move
+     * @param fen position in Forsyth-Edwards Notation
+     * @param maxMoves longest mate to look for, in moves of the side to
+     *          move, 1 to MAX_MATE_MOVES
+     * @return the shortest mate found with its statistics
+     * @throws IllegalArgumentException if fen is not a legal FEN position
+     */
+    public MateResult solveMate(String fen, int maxMoves)
+    { return solveMate( Game.fromFEN(fen).startGame(), maxMoves ); }
+
+    /**
+     * Looks for a forced mate by the side to move
+     * @param game position to solve. It is not changed
+     * @param maxMoves longest mate to look for, in moves of the side to
+     *          move, 1 to MAX_MATE_MOVES
+     * @return the shortest mate found with its statistics
+     */
+    public MateResult solveMate(Game game, int maxMoves)
+    {
+        if ( maxMoves < 1 || maxMoves > MAX_MATE_MOVES )
+            throw new IllegalArgumentException("Mate length must be 1 to " + MAX_MATE_MOVES);
+        long start = System.nanoTime();
+        Nodes = 0;
+        clearCache();
+        Board = new Game(game);
+        int moves = 0;
+        int move = PackedMove.NO_MOVE;
+        for ( int n = 1; n <= maxMoves && move == PackedMove.NO_MOVE; n++ )
+        {   move = findMateIn(n, 0);
+            moves = n;
+        }
+        Board = null;
+        if ( move == PackedMove.NO_MOVE ) moves = 0;
+        return new MateResult( moves, move, Nodes, (System.nanoTime() - start) / 1000000L );
+    }
+
+    // finds a move of the attacker that mates in n, checks first
+    private int findMateIn(int n, int ply)
+    {
+        Nodes++;
+        int[] moves = MoveBuffers[ply];
+        int count = Board.generateLegalMoves(moves);
+        for ( int pass = 0; pass < 2; pass++ )
+        {   // the mating move must give check
+            if ( pass == 1 && n == 1 ) break;
+            for ( int i = 0; i < count; i++ )
+            {   Board.doMove(moves[i]);
+                boolean check = Board.isInCheck( Board.getWhoseTurn() );
+                boolean mate = ( check == (pass == 0) ) && isDefenceLostIn(n, ply + 1);
+                Board.undoMove();
+                if ( mate ) return moves[i];
+            }
+        }
+        return PackedMove.NO_MOVE;
+    }
+
+    // true if the attacker mates in n from here, looked up in the cache first
+    private boolean isMateIn(int n, int ply)
+    {
+        long key = Board.getPositionHash();
+        int index = (int)key & ((1 << CACHE_BITS) - 1);
+        if ( CacheKeys[index] == key )
+        {   if ( CacheProven[index] != 0 && CacheProven[index] <= n ) return true;
+            if ( CacheRefuted[index] >= n ) return false;
+        }
+        else
+        {   CacheKeys[index] = key;
+            CacheProven[index] = CacheRefuted[index] = 0;
+        }
+        boolean mate = findMateIn(n, ply) != PackedMove.NO_MOVE;
+        if ( CacheKeys[index] == key )  // not replaced by a deeper position
+        {   if ( mate ) CacheProven[index] = (byte)n;
+            else CacheRefuted[index] = (byte)Math.max(CacheRefuted[index], n);
+        }
+        return mate;
+    }
+
+    // true if every defence, after the attacker's nth move to mate, loses
+    private boolean isDefenceLostIn(int n, int ply)
+    {
+        Nodes++;
+        int[] moves = MoveBuffers[ply];
+        int count = Board.generateLegalMoves(moves);
+        if ( count == 0 )
+            return Board.isInCheck( Board.getWhoseTurn() );  // otherwise stalemate
+        if ( n == 1 ) return false;
+        for ( int i = 0; i < count; i++ )
+        {   Board.doMove(moves[i]);
+            boolean mate = isMateIn(n - 1, ply + 1);
+            Board.undoMove();
+            if ( !mate ) return false;
+        }
+        return true;
+    }
+
+    private void clearCache()
+    {
+        Arrays.fill(CacheKeys, 0L);
+        Arrays.fill(CacheProven, (byte)0);
+        Arrays.fill(CacheRefuted, (byte)0);
+    }
+}
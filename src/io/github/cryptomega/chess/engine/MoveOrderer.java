@@ -0,0 +1,170 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess.engine;
+
+import io.github.cryptomega.chess.Game;
+import io.github.cryptomega.chess.PackedMove;
+
+/**
+ * Orders moves so the ones most likely to cause a cutoff are searched
+ * first: the hash or principal variation move, then captures and
+ * promotions by most valuable victim and least valuable attacker
+ * (MVV-LVA), then the killer moves of the ply, then the other quiet
+ * moves by their history score. Moves are scored in place in a buffer
+ * beside the move buffer and picked one at a time with pickBest(), so
+ * a cutoff after the first few moves saves sorting the rest.
+ *
+ * Killer moves are the last two quiet moves that caused a cutoff at
+ * each ply. The history table counts cutoffs by quiet moves, by color,
+ * from square and to square, weighted by depth squared.
+ */
+final class MoveOrderer
+{
+    private static final int HASH_MOVE_SCORE = 1 << 30;
+    private static final int CAPTURE_SCORE = 1 << 29;
+    private static final int KILLER_SCORE = 1 << 28;
+    private static final int HISTORY_LIMIT = 1 << 20;  // history is halved past this
+
+    private static final int NUMBER_OF_KILLERS = 2;
+    private static final int NUMBER_OF_SQUARES = 64;
+
+    private final int[][] Killers = new int[Engine.MAX_PLY][NUMBER_OF_KILLERS];
+    private final int[] History = new int[2*NUMBER_OF_SQUARES*NUMBER_OF_SQUARES]; // [color][from][to]
+
+    /**
+     * Forgets the killer moves and halves the history, for a new search
+     */
+    void newSearch()
+    {
+        for ( int[] killers : Killers )
+            for ( int i = 0; i < NUMBER_OF_KILLERS; i++ )
+                killers[i] = PackedMove.NO_MOVE;
+        ageHistory();
+    }
+
+    /**
+     * Scores moves for pickBest()
+     * @param board position the moves are from
+     * @param moves move buffer
+     * @param scores buffer for the scores, by move index
+     * @param count number of moves
+     * @param ply ply of the position, for its killer moves
+     * @param firstMove move to search first, or NO_MOVE
+     */
+    void scoreMoves(Game board, int[] moves, int[] scores, int count, int ply, int firstMove)
+    {
+        int color = board.getWhoseTurn();
+        int[] killers = Killers[ply];
+        for ( int i = 0; i < count; i++ )
+        {
+            int move = moves[i];
+            if ( move == firstMove )
+                scores[i] = HASH_MOVE_SCORE;
+            else if ( isTactical(move) )
+                scores[i] = CAPTURE_SCORE + getMvvLvaScore(board, move);
+            else if ( move == killers[0] )
+                scores[i] = KILLER_SCORE + 1;
+            else if ( move == killers[1] )
+                scores[i] = KILLER_SCORE;
+            else
+                scores[i] = History[getHistoryIndex(color, move)];
+        }
+    }
+
+    /**
+     * Records a quiet move that caused a cutoff
+     * @param color color of the moving player
+     * @param move the move
+     * @param ply ply it was played at
+     * @param depth remaining depth of the search it cut off
+     */
+    void addCutoff(int color, int move, int ply, int depth)
+    {
+        if ( isTactical(move) ) return;
+        int[] killers = Killers[ply];
+        if ( killers[0] != move )
+        {   killers[1] = killers[0];
+            killers[0] = move;
+        }
+        int index = getHistoryIndex(color, move);
+        History[index] += depth*depth;
+        if ( History[index] > HISTORY_LIMIT )
+            ageHistory();
+    }
+
+    /**
+     * Swaps the best scored move from index on into index
+     * @param moves move buffer
+     * @param scores their scores
+     * @param index first move not yet searched
+     * @param count number of moves
+     */
+    static void pickBest(int[] moves, int[] scores, int index, int count)
+    {
+        int best = index;
+        for ( int i = index + 1; i < count; i++ )
+            if ( scores[i] > scores[best] ) best = i;
+        if ( best == index ) return;
+        int move = moves[best];
+        int score = scores[best];
+        moves[best] = moves[index];
+        scores[best] = scores[index];
+        moves[index] = move;
+        scores[index] = score;
+    }
+
+    /**
+     * @param moves move buffer
+     * @param count number of moves
+     * @param move move to look for
+     * @return true if the move is in the buffer
+     */
+    static boolean contains(int[] moves, int count, int move)
+    {
+        if ( move == PackedMove.NO_MOVE ) return false;
+        for ( int i = 0; i < count; i++ )
+            if ( moves[i] == move ) return true;
+        return false;
+    }
+
+    static boolean isTactical(int move)
+    { return PackedMove.isCapture(move) || PackedMove.isPromotion(move); }
+
+    // victim first, then the cheapest attacker. promotions count the new piece
+    private static int getMvvLvaScore(Game board, int move)
+    {
+        int victim = PackedMove.isEnPassant(move) ? getOrderOf(Game.PAWN)
+                : getOrderOf( board.getTypeOnSquare(PackedMove.getToSquare(move)) );
+        if ( PackedMove.isPromotion(move) )
+            victim += getOrderOf( PackedMove.getPromotionType(move) );
+        int attacker = getOrderOf( board.getTypeOnSquare(PackedMove.getFromSquare(move)) );
+        return 8*victim - attacker;
+    }
+
+    // 0 for an empty square, then 1 for a pawn up to 6 for a king
+    private static int getOrderOf(char type)
+    {
+        switch ( type )
+        {   case Game.PAWN:   return 1;
+            case Game.KNIGHT: return 2;
+            case Game.BISHOP: return 3;
+            case Game.ROOK:   return 4;
+            case Game.QUEEN:  return 5;
+            case Game.KING:   return 6;
+            default:          return 0;
+        }
+    }
+
+    private static int getHistoryIndex(int color, int move)
+    {
+        return ( color*NUMBER_OF_SQUARES + PackedMove.getFromSquare(move) )*NUMBER_OF_SQUARES
+                + PackedMove.getToSquare(move);
+    }
+
+    private void ageHistory()
+    {
+        for ( int i = 0; i < History.length; i++ )
+            History[i] >>= 1;
+    }
+}
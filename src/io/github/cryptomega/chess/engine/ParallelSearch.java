@@ -0,0 +1,248 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess.engine;
+
+import io.github.cryptomega.chess.Game;
+import io.github.cryptomega.chess.PackedMove;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Lazy SMP search: one Engine per thread, each on its own copy of the
+ * game, all searching the same root and sharing one
+ * TranspositionTable. The calling thread runs the main engine, whose
+ * move is played. Helper threads start at staggered depths, odd helpers
+ * one ply deeper, and fill the table with results the others pick up.
+ * They are stopped when the main engine finishes.
+ *
+ *    ParallelSearch search = new ParallelSearch( Runtime.getRuntime().availableProcessors() );
+ *    search.makeMove(game);
+ */
+public class ParallelSearch
+{
+    private final TranspositionTable Table;
+    private final Engine[] Engines;   // [0] is the main engine
+    private final ExecutorService Helpers;
+    private final long[] ThreadNodes;
+    private long Millis = 0;
+
+    /**
+     * Creates a search with its own table of
+     * TranspositionTable.DEFAULT_MEGABYTES
+     * @param threads number of threads, at least 1
+     */
+    public ParallelSearch(int threads)
+    { this( threads, new TranspositionTable(TranspositionTable.DEFAULT_MEGABYTES) ); }
+
+    /**
+     * Creates a search. Helper threads are daemon threads, kept until
+     * shutdown()
+     * @param threads number of threads, at least 1
+     * @param table transposition table shared by all threads
+     */
+    public ParallelSearch(int threads, TranspositionTable table)
+    {
+        if ( threads < 1 )
+            throw new IllegalArgumentException("Need at least one thread");
+        Table = table;
+        Engines = new Engine[threads];
+        for ( int i = 0; i < threads; i++ )
+        {   Engines[i] = new Engine(table);
+            Engines[i].setHelper( i > 0 );
+        }
+        ThreadNodes = new long[threads];
+        Helpers = ( threads == 1 ) ? null
+                : Executors.newFixedThreadPool(threads - 1, new ThreadFactory()
+        {   private int Count = 0;
+            @Override
+            public Thread newThread(Runnable runnable)
+            {   Thread thread = new Thread(runnable, "search-helper-" + ++Count);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public int getThreadCount() { return Engines.length; }
+    public TranspositionTable getTranspositionTable() { return Table; }
+
+    /**
+     * Registers a listener for the main engine's progress. Its node
+     * counts are those of the main thread only
+     * @param listener listener, or null
+     */
+    public void setSearchListener(SearchListener listener)
+    { Engines[0].setSearchListener(listener); }
+
+    /**
+     * @return report of the main engine's last completed iteration, or null
+     */
+    public SearchInfo getLastInfo() { return Engines[0].getLastInfo(); }
+
+    /**
+     * Sets an opening book. While the game is in the book, search()
+     * plays a book move at once instead of searching
+     * @param book opening book, or null for none
+     */
+    public void setOpeningBook(PolyglotBook book) { Engines[0].setOpeningBook(book); }
+
+    /**
+     * Stops a running search. It returns the best move found so far
+     */
+    public void stop()
+    {
+        for ( Engine engine : Engines )
+            engine.stop();
+    }
+
+    /**
+     * Stops the helper threads. The search cannot be used afterwards
+     */
+    public void shutdown()
+    {
+        stop();
+        if ( Helpers != null ) Helpers.shutdownNow();
+    }
+
+    /**
+     * Searches the game and plays the best move found
+     * @param game active game
+     * @return move code from Game.makePackedMove(), or MOVE_ILLEGAL if
+     *          the game is over
+     */
+    public int makeMove(Game game)
+    {
+        int move = search(game);
+        if ( move == PackedMove.NO_MOVE ) return Game.MOVE_ILLEGAL;
+        return game.makePackedMove(move);
+    }
+
+    /**
+     * Searches the game within its time budget, see Engine.getTimeBudgetMillis()
+     * @param game game to search. It is not changed
+     * @return best move found, or PackedMove.NO_MOVE if the game is over
+     */
+    public int search(Game game)
+    { return search(game, Engine.getTimeBudgetMillis(game), Engine.MAX_PLY - 1); }
+
+    /**
+     * Searches the game on all threads until the main engine reaches
+     * the depth, runs out of time, finds a mate or is stopped. A move
+     * from the opening book, if any, is returned without a search
+     * @param game game to search. It is not changed
+     * @param millis time limit in milliseconds
+     * @param maxDepth depth limit in plies for the main engine
+     * @return best move found, or PackedMove.NO_MOVE if the game is over
+     */
+    public int search(Game game, long millis, int maxDepth)
+    {
+        long start = System.nanoTime();
+        int bookMove = Engines[0].getBookMoveIn(game);
+        if ( bookMove != PackedMove.NO_MOVE )
+        {   Millis = (System.nanoTime() - start) / 1000000L;
+            Arrays.fill(ThreadNodes, 0L);
+            return bookMove;
+        }
+        Table.newSearch();
+        List<Future<Integer>> futures = new ArrayList<>(Engines.length - 1);
+        for ( int i = 1; i < Engines.length; i++ )
+        {
+            final Engine helper = Engines[i];
+            final Game copy = new Game(game); // the helper must not read the caller's game
+            final long helperMillis = millis;
+            final int firstDepth = 1 + (i & 1);
+            final int helperMaxDepth = Engine.MAX_PLY - 1;
+            helper.clearStop();
+            futures.add( Helpers.submit( new Callable<Integer>()
+            {   @Override
+                public Integer call()
+                { return helper.searchIn(copy, helperMillis, firstDepth, helperMaxDepth); }
+            }) );
+        }
+
+        Engines[0].clearStop();
+        int move = Engines[0].searchIn(game, millis, 1, maxDepth);
+        for ( int i = 1; i < Engines.length; i++ )
+            Engines[i].stop();
+        for ( Future<Integer> future : futures )
+        {   try { future.get(); }
+            catch ( InterruptedException e )
+            {   Thread.currentThread().interrupt();
+                break;
+            }
+            catch ( ExecutionException e )
+            { throw new IllegalStateException("Search helper failed", e.getCause()); }
+        }
+
+        Millis = (System.nanoTime() - start) / 1000000L;
+        for ( int i = 0; i < Engines.length; i++ )
+            ThreadNodes[i] = Engines[i].getNodes();
+        return move;
+    }
+
+    /**
+     * @return wall clock time of the last search in milliseconds
+     */
+    public long getMillis() { return Millis; }
+
+    /**
+     * @return nodes searched by each thread in the last search, main thread first
+     */
+    public long[] getThreadNodes() { return ThreadNodes.clone(); }
+
+    /**
+     * @return nodes searched by all threads in the last search
+     */
+    public long getNodes()
+    {
+        long nodes = 0;
+        for ( long n : ThreadNodes ) nodes += n;
+        return nodes;
+    }
+
+    /**
+     * @return transposition table hits of all threads in the last search,
+     *          counted by each thread and added up afterwards
+     */
+    public long getTableHits()
+    {
+        long hits = 0;
+        for ( Engine engine : Engines ) hits += engine.getTableHits();
+        return hits;
+    }
+
+    public long getTableMisses()
+    {
+        long misses = 0;
+        for ( Engine engine : Engines ) misses += engine.getTableMisses();
+        return misses;
+    }
+
+    public long getTableStores()
+    {
+        long stores = 0;
+        for ( Engine engine : Engines ) stores += engine.getTableStores();
+        return stores;
+    }
+
+    /**
+     * @return nodes per second of all threads in the last search
+     */
+    public long getNodesPerSecond()
+    { return ( Millis == 0 ) ? 0 : getNodes() * 1000 / Millis; }
+
+    /**
+     * @param thread thread index, 0 for the main thread
+     * @return nodes per second of one thread in the last search
+     */
+    public long getNodesPerSecond(int thread)
+    { return ( Millis == 0 ) ? 0 : ThreadNodes[thread] * 1000 / Millis; }
+}
@@ -0,0 +1,168 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess.engine;
+
+import io.github.cryptomega.chess.Game;
+import io.github.cryptomega.chess.PackedMove;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Reader for Polyglot .bin opening books. The file is memory mapped, not
+ * read into the heap, and probed by binary search, as its entries are
+ * sorted by key. Probing reads the mapping in place and allocates
+ * nothing, and any number of threads may probe one book. getMove()
+ * matches the book move against the legal moves in a buffer kept per
+ * thread, so it allocates nothing either after a thread's first call.
+ *
+ * Each entry is 16 bytes, big-endian:
+ *    key     8 bytes, PolyglotKey of the position, sorted unsigned
+ *    move    2 bytes, to file and rank in bits 0-5, from square in
+ *            bits 6-11, promotion in bits 12-14, 1 knight to 4 queen.
+ *            Castling is the king taking its own rook
+ *    weight  2 bytes, how often to play the move relative to the others
+ *    learn   4 bytes, not used
+ *
+ *    PolyglotBook book = new PolyglotBook( Paths.get("book.bin") );
+ *    int move = book.getMove(game);   // PackedMove.NO_MOVE out of book
+ */
+public final class PolyglotBook
+{
+    private static final int ENTRY_BYTES = 16;
+    private static final int MOVE_OFFSET = 8;
+    private static final int WEIGHT_OFFSET = 10;
+    private static final char[] PROMOTIONS = { ' ', Game.KNIGHT, Game.BISHOP, Game.ROOK, Game.QUEEN };
+
+    private final MappedByteBuffer Entries;
+    private final int EntryCount;
+    private final PolyglotKey Keys;
+    private final Random Random = new Random();
+    private final ThreadLocal<int[]> MoveBuffers = new ThreadLocal<int[]>()
+    {   @Override
+        protected int[] initialValue() { return new int[Game.MAX_LEGAL_MOVES]; }
+    };
+
+    /**
+     * Maps a book file keyed with Polyglot's own random numbers
+     * @param file Polyglot .bin book, smaller than 2 GB
+     * @throws IOException if the file cannot be read or is not a whole
+     *          number of entries
+     */
+    public PolyglotBook(Path file) throws IOException
+    { this( file, new PolyglotKey() ); }
+
+    /**
+     * Maps a book file. The mapping stays valid until the book is
+     * garbage collected
+     * @param file Polyglot .bin book, smaller than 2 GB
+     * @param keys position keys for the book
+     * @throws IOException if the file cannot be read or is not a whole
+     *          number of entries
+     */
+    public PolyglotBook(Path file, PolyglotKey keys) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) )
+        {   long size = channel.size();
+            if ( size % ENTRY_BYTES != 0 || size > Integer.MAX_VALUE )
+                throw new IOException("Not a Polyglot book: " + file);
+            Entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            EntryCount = (int)(size / ENTRY_BYTES);
+        }
+        Keys = keys;
+    }
+
+    public int getEntryCount() { return EntryCount; }
+    public PolyglotKey getKeys() { return Keys; }
+
+    /**
+     * Picks a book move for a position at random, weighted by the
+     * entries' weights
+     * @param key PolyglotKey of the position
+     * @return Polyglot move of the entry, or 0 if the position is not
+     *          in the book or all its moves have weight 0
+     */
+    public int probe(long key)
+    {
+        int first = findFirstIn(key);
+        int total = 0;
+        int last = first;
+        for ( ; last < EntryCount && getKeyAt(last) == key; last++ )
+            total += getWeightAt(last);
+        if ( total == 0 ) return 0;
+
+        int pick = Random.nextInt(total);
+        for ( int i = first; i < last; i++ )
+        {   pick -= getWeightAt(i);
+            if ( pick < 0 ) return getMoveAt(i);
+        }
+        return 0;
+    }
+
+    /**
+     * @param key PolyglotKey of the position
+     * @return number of book moves for the position
+     */
+    public int getMoveCount(long key)
+    {
+        int count = 0;
+        for ( int i = findFirstIn(key); i < EntryCount && getKeyAt(i) == key; i++ )
+            count++;
+        return count;
+    }
+
+    /**
+     * Picks a book move for the game's position
+     * @param game game to move in
+     * @return legal move as in PackedMove, or PackedMove.NO_MOVE if the
+     *          position is not in the book
+     */
+    public int getMove(Game game)
+    {
+        int bookMove = probe( Keys.getKey(game) );
+        if ( bookMove == 0 ) return PackedMove.NO_MOVE;
+        int[] moves = MoveBuffers.get();
+        int count = game.generateLegalMoves(moves);
+        for ( int i = 0; i < count; i++ )
+            if ( isSameMove(moves[i], bookMove) ) return moves[i];
+        return PackedMove.NO_MOVE;  // a key collision
+    }
+
+    // true if the packed move is the book move. A book castle is the
+    // king moving onto its rook's square
+    private static boolean isSameMove(int move, int bookMove)
+    {
+        int from = (bookMove >>> 6) & 63;
+        int to = bookMove & 63;
+        if ( PackedMove.getFromSquare(move) != from ) return false;
+        if ( PackedMove.isCastle(move) )
+            return to == (from & 56) + ( ((move & PackedMove.CASTLE_KINGSIDE) != 0) ? 7 : 0 );
+        if ( PackedMove.getToSquare(move) != to ) return false;
+        int promotion = (bookMove >>> 12) & 7;
+        if ( promotion == 0 || promotion >= PROMOTIONS.length )
+            return !PackedMove.isPromotion(move);
+        return PackedMove.isPromotion(move) && PackedMove.getPromotionType(move) == PROMOTIONS[promotion];
+    }
+
+    // index of the first entry with a key not less than key, unsigned
+    private int findFirstIn(long key)
+    {
+        int low = 0;
+        int high = EntryCount;
+        long target = key ^ Long.MIN_VALUE;  // unsigned order as signed
+        while ( low < high )
+        {   int middle = (low + high) >>> 1;
+            if ( (getKeyAt(middle) ^ Long.MIN_VALUE) < target ) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    private long getKeyAt(int index) { return Entries.getLong(index*ENTRY_BYTES); }
+    private int getMoveAt(int index) { return Entries.getShort(index*ENTRY_BYTES + MOVE_OFFSET) & 0xFFFF; }
+    private int getWeightAt(int index) { return Entries.getShort(index*ENTRY_BYTES + WEIGHT_OFFSET) & 0xFFFF; }
+}
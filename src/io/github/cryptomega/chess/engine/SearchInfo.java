@@ -0,0 +1,78 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess.engine;
+
+import io.github.cryptomega.chess.PackedMove;
+import java.util.Arrays;
+
+/**
+ * Immutable report of a search iteration: depth reached, score,
+ * node count, time taken and principal variation.
+ */
+public final class SearchInfo
+{
+    private final int Depth;
+    private final int Score;
+    private final long Nodes;
+    private final long Millis;
+    private final int[] PrincipalVariation;
+
+    SearchInfo(int depth, int score, long nodes, long millis, int[] pv, int pvLength)
+    {
+        Depth = depth;
+        Score = score;
+        Nodes = nodes;
+        Millis = millis;
+        PrincipalVariation = Arrays.copyOf(pv, pvLength);
+    }
+
+    public int getDepth() { return Depth; }
+    /**
+     * @return score in centipawns for the side to move, or
+     *          Engine.MATE_SCORE minus the plies to mate
+     */
+    public int getScore() { return Score; }
+    public long getNodes() { return Nodes; }
+    public long getMillis() { return Millis; }
+    public long getNodesPerSecond()
+    { return ( Millis == 0 ) ? 0 : Nodes * 1000 / Millis; }
+
+    /**
+     * @return packed moves of the expected line, best move first
+     */
+    public int[] getPrincipalVariation() { return PrincipalVariation.clone(); }
+    public int getBestMove()
+    { return ( PrincipalVariation.length == 0 ) ? PackedMove.NO_MOVE : PrincipalVariation[0]; }
+
+    public boolean isMateScore() { return Engine.isMateScore(Score); }
+    /**
+     * @return moves to mate, negative if the side to move is mated,
+     *          or 0 if the score is not a mate score
+     */
+    public int getMateInMoves()
+    {
+        if ( !isMateScore() ) return 0;
+        return ( Score > 0 ) ? (Engine.MATE_SCORE - Score + 1) / 2
+                             : -(Engine.MATE_SCORE + Score) / 2;
+    }
+
+    /**
+     * @return example: "depth 6 score cp 35 nodes 81234 nps 950000 time 85 pv e2e4 e7e5"
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("depth ").append(Depth);
+        if ( isMateScore() ) sb.append(" score mate ").append( getMateInMoves() );
+        else sb.append(" score cp ").append(Score);
+        sb.append(" nodes ").append(Nodes);
+        sb.append(" nps ").append( getNodesPerSecond() );
+        sb.append(" time ").append(Millis);
+        sb.append(" pv");
+        for ( int move : PrincipalVariation )
+            sb.append(' ').append( PackedMove.toString(move) );
+        return sb.toString();
+    }
+}
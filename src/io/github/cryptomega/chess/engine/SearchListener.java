@@ -0,0 +1,18 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess.engine;
+
+/**
+ * Receives progress reports from an Engine search
+ */
+public interface SearchListener
+{
+    /**
+     * Called after each completed iteration of the search. An iteration
+     * cut short by the time limit or stop() is not reported, so the last
+     * call is the deepest completed one. Called on the searching thread.
+     * @param info depth, score, node count and principal variation
+     */
+    public void onSearchInfo( SearchInfo info );
+}
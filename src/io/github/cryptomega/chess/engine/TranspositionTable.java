@@ -0,0 +1,167 @@
+/*
+ *
+ */
+package io.github.cryptomega.chess.engine;
+
+import io.github.cryptomega.chess.PackedMove;
+import java.util.Arrays;
+
+/**
+ * Fixed size transposition table in one long[], shared by any number of
+ * searching threads without locks. Positions are keyed by
+ * Game.getPositionHash().
+ *
+ * Each entry is two longs: the key xor'ed with the data, then the data.
+ * A reader accepts an entry only if the two xor back to its key, so an
+ * entry torn by two threads writing at once reads as a miss instead of
+ * returning another position's data. Entries are grouped four to a
+ * bucket of 64 bytes. A store replaces the entry for the same position,
+ * otherwise the shallowest entry, counting entries from older searches
+ * as shallower. The table keeps no hit counters, which every thread
+ * would write on every probe; each Engine counts its own.
+ *
+ * Data layout, see probe():
+ *  bits  0-20  best move, packed as in PackedMove, or NO_MOVE
+ *  bits 21-36  score, signed
+ *  bits 37-44  depth
+ *  bits 45-46  bound, UPPER_BOUND, LOWER_BOUND or EXACT
+ *  bits 47-54  age of the search that stored it
+ */
+public final class TranspositionTable
+{
+    public static final int UPPER_BOUND = 1;  // score is at most the stored score
+    public static final int LOWER_BOUND = 2;  // score is at least the stored score
+    public static final int EXACT       = 3;
+
+    public static final int DEFAULT_MEGABYTES = 16;
+
+    private static final int ENTRIES_PER_BUCKET = 4;
+    private static final int LONGS_PER_BUCKET = 2*ENTRIES_PER_BUCKET;
+    private static final int BYTES_PER_BUCKET = 8*LONGS_PER_BUCKET;
+
+    private static final int MOVE_MASK = 0x1FFFFF;
+    private static final int SCORE_SHIFT = 21;
+    private static final int DEPTH_SHIFT = 37;
+    private static final int BOUND_SHIFT = 45;
+    private static final int AGE_SHIFT = 47;
+    private static final int BYTE_MASK = 0xFF;
+    private static final int AGE_WEIGHT = 8;  // plies of depth one search of age is worth
+
+    private final long[] Table;
+    private final int BucketMask;
+    private int Age = 0;
+
+    /**
+     * Creates an empty table
+     * @param megabytes size of the table, rounded down to a power of 2
+     */
+    public TranspositionTable(int megabytes)
+    {
+        if ( megabytes < 1 )
+            throw new IllegalArgumentException("Table size must be at least 1 MB");
+        long buckets = Long.highestOneBit( ((long)megabytes << 20) / BYTES_PER_BUCKET );
+        // a Java array holds at most 2^31 - 1 longs
+        buckets = Math.min( buckets, (1L << 30) / LONGS_PER_BUCKET );
+        Table = new long[ (int)buckets * LONGS_PER_BUCKET ];
+        BucketMask = (int)buckets - 1;
+    }
+
+    /**
+     * Empties the table. Not safe while a search is using the table
+     */
+    public void clear()
+    {
+        Arrays.fill(Table, 0L);
+        Age = 0;
+    }
+
+    /**
+     * Starts a new search, so entries of earlier searches are
+     * replaced first
+     */
+    public void newSearch() { Age = (Age + 1) & BYTE_MASK; }
+
+    /**
+     * Looks up a position
+     * @param key position hash
+     * @return entry data, decoded with getMove(), getScore(), getDepth()
+     *          and getBound(), or 0 if the position is not in the table
+     */
+    public long probe(long key)
+    {
+        int base = getBucketIn(key);
+        for ( int i = base; i < base + LONGS_PER_BUCKET; i += 2 )
+        {
+            long data = Table[i + 1];
+            if ( (Table[i] ^ data) == key && data != 0L )
+                return data;
+        }
+        return 0L;
+    }
+
+    /**
+     * Stores a search result
+     * @param key position hash
+     * @param move best move, or PackedMove.NO_MOVE
+     * @param score score, with mate scores relative to this position
+     * @param depth depth searched, 0-255
+     * @param bound UPPER_BOUND, LOWER_BOUND or EXACT
+     */
+    public void store(long key, int move, int score, int depth, int bound)
+    {
+        int base = getBucketIn(key);
+        int replace = base;
+        int lowestPriority = Integer.MAX_VALUE;
+        for ( int i = base; i < base + LONGS_PER_BUCKET; i += 2 )
+        {
+            long data = Table[i + 1];
+            if ( (Table[i] ^ data) == key && data != 0L )
+            {   // same position, keep its move if there is no new one
+                if ( move == PackedMove.NO_MOVE ) move = getMove(data);
+                replace = i;
+                break;
+            }
+            int priority = ( data == 0L ) ? Integer.MIN_VALUE
+                    : getDepth(data) - AGE_WEIGHT*( (Age - getAge(data)) & BYTE_MASK );
+            if ( priority < lowestPriority )
+            {   lowestPriority = priority;
+                replace = i;
+            }
+        }
+
+        long data = (move & MOVE_MASK)
+                | ( (long)(score & 0xFFFF) << SCORE_SHIFT )
+                | ( (long)(Math.max(0, Math.min(depth, BYTE_MASK))) << DEPTH_SHIFT )
+                | ( (long)bound << BOUND_SHIFT )
+                | ( (long)Age << AGE_SHIFT );
+        Table[replace] = key ^ data;
+        Table[replace + 1] = data;
+    }
+
+    public static int getMove(long data) { return (int)data & MOVE_MASK; }
+    public static int getScore(long data) { return (short)(data >>> SCORE_SHIFT); }
+    public static int getDepth(long data) { return (int)(data >>> DEPTH_SHIFT) & BYTE_MASK; }
+    public static int getBound(long data) { return (int)(data >>> BOUND_SHIFT) & 3; }
+    private static int getAge(long data) { return (int)(data >>> AGE_SHIFT) & BYTE_MASK; }
+
+    public int getCapacity() { return Table.length / 2; }
+    public int getMegabytes() { return (int)( (8L*Table.length) >>> 20 ); }
+
+    /**
+     * @return entries per thousand used by the current search, sampled
+     *          from the start of the table
+     */
+    public int getUsagePermille()
+    {
+        int sample = Math.min(1000, getCapacity());
+        int used = 0;
+        for ( int i = 0; i < sample; i++ )
+        {   long data = Table[2*i + 1];
+            if ( data != 0L && getAge(data) == Age ) used++;
+        }
+        return used * 1000 / sample;
+    }
+
+    private int getBucketIn(long key)
+    { return ( (int)key & BucketMask ) * LONGS_PER_BUCKET; }
+}
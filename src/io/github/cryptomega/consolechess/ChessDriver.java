@@ -16,6 +16,11 @@ import io.github.cryptomega.chess.GameListener;
 import io.github.cryptomega.chess.PieceListener;
 
 import io.github.cryptomega.chess.PGNLoader;
+import io.github.cryptomega.chess.engine.Engine;
+import io.github.cryptomega.chess.engine.PolyglotBook;
+import io.github.cryptomega.chess.engine.SearchInfo;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -30,6 +35,8 @@ public class ChessDriver
 
     // PGN loader
     private static PGNLoader loader = null;
+    // engine playing for the side to move
+    private static final Engine engine = new Engine();
     final private static String PGN_GAMES = "pgn\\Fischer.pgn";
     final private static int BOARD_HALF_WIDTH = (int)(45 / 2);
     final private static int REPLAY_DELAY = 650;
@@ -114,6 +121,9 @@ public static void main(String[] args)
             case "HISTORY":
                 message =  myGame.getHistory();
                 continue;
+            case "GO":
+                message = engineMove(myGame);
+                continue;
             default:
                 // make sure game is active
                 if ( !myGame.isGameActive() ) message = "> > > Game is inactive < < <";
@@ -121,6 +131,9 @@ public static void main(String[] args)
                 // validate move
                 else if ( input.matches("(?i)VALIDATE.*") ) message = validate(myGame, input);
                 
+                // opening book for the engine
+                else if ( input.matches("(?i)BOOK.*") ) message = loadBook(input);
+                
                 // additional commands with parameters can be received here
                 
                 else // try to make the move
@@ -133,6 +146,17 @@ public static void main(String[] args)
     }
 }
 
+// lets the engine make the next move
+private static String engineMove(Game myGame)
+{
+    if ( !myGame.isGameActive() ) return "> > > Game is inactive < < <";
+    int code = engine.makeMove(myGame);
+    SearchInfo info = engine.getLastInfo();
+    if ( !Game.isMoveCodeLegal(code) )
+        return "> > > " + Game.getMoveCodeText(code) + " ("+code+") < < <";
+    return ( info == null ) ? "" : info.toString();
+}
+
 public static void analyze(Game myGame)
 {
     //Game analysisGame = new Game(myGame, true);
@@ -311,6 +335,20 @@ private static void printLastRow()
         return loader.getNextGame(); 
     }
 
+    // BOOK book.bin, Polyglot opening book for the engine
+    private static String loadBook(String input)
+    {
+        String[] words = input.trim().split("\\s+");
+        if ( words.length != 2 ) return "Command usage: 'book BOOK_FILE'";
+        try
+        {   PolyglotBook book = new PolyglotBook( Paths.get(words[1]) );
+            engine.setOpeningBook(book);
+            return "Book loaded: " + book.getEntryCount() + " entries";
+        } catch ( IOException | IllegalArgumentException e ) {
+            return "> > > " + e.getMessage() + " < < <";
+        }
+    }
+    
     private static String validate(Game myGame, String input)
     {
         //System.out.println("DEBUG:VALIDATE ");
@@ -0,0 +1,134 @@
+/*
+ *  Mate puzzle verifier
+ *  Proves the mates of a puzzle file with MateSolver, across a pool of
+ *  worker threads, and reports the puzzles whose mate is not forced in
+ *  the stated number of moves or is shorter.
+ *
+ *  Puzzle files have one puzzle a line, fields separated by ';':
+ *      FEN; moves to mate; key move (optional, e.g. d1d8)
+ *  Blank lines and lines starting with '#' are skipped. A key move
+ *  that differs from the one found is reported, but may be a second
+ *  solution.
+ *
+ *  usage: MateVerifier [puzzle file] [threads]
+ *  With no file, verifies a few sample puzzles.
+ */
+package io.github.cryptomega.consolechess;
+
+import io.github.cryptomega.chess.PackedMove;
+import io.github.cryptomega.chess.engine.MateResult;
+import io.github.cryptomega.chess.engine.MateSolver;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *
+ * @author Philip
+ */
+public class MateVerifier
+{
+    final private static String[] SAMPLE_PUZZLES = {
+        "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1; 1; d1d8",
+        "r1bqkb1r/pppp1ppp/2n2n2/4p2Q/2B1P3/8/PPPP1PPP/RNB1K1NR w KQkq - 4 4; 1; h5f7",
+        "k7/8/2K5/8/8/8/8/7R w - - 0 1; 2; c6b6",
+        "6k1/pp4p1/2p5/2bp4/8/P5Pb/1P3rrP/2BRRN1K b - - 0 1; 2; g2g1",
+        "r2qkb1r/pp2nppp/3p4/2pNN1B1/2BnP3/3P4/PPP2PPP/R2bK2R w KQkq - 1 1; 2; d5f6",
+        "r1b3kr/ppp1Bp1p/1b6/n2P4/2p3q1/2Q2N2/P4PPP/RN2R1K1 w - - 1 0; 3; c3h8"
+    };
+
+    // one solver per worker thread, each has its own cache
+    final private static ThreadLocal<MateSolver> SOLVERS = new ThreadLocal<MateSolver>()
+    {   @Override
+        protected MateSolver initialValue() { return new MateSolver(); }
+    };
+
+/**
+ * @param args the command line arguments
+ * @throws IOException if the puzzle file cannot be read
+ * @throws InterruptedException if interrupted while waiting for the workers
+ */
+public static void main(String[] args) throws IOException, InterruptedException
+{
+    List<String> lines = ( args.length > 0 )
+            ? Files.readAllLines( Paths.get(args[0]), StandardCharsets.UTF_8 )
+            : Arrays.asList(SAMPLE_PUZZLES);
+    int threads = ( args.length > 1 ) ? Integer.parseInt(args[1])
+            : Runtime.getRuntime().availableProcessors();
+
+    List<String> puzzles = new ArrayList<>();
+    for ( String line : lines )
+    {   line = line.trim();
+        if ( !line.isEmpty() && !line.startsWith("#") ) puzzles.add(line);
+    }
+
+    long start = System.nanoTime();
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    List<Future<String>> results = new ArrayList<>( puzzles.size() );
+    final long[] nodes = new long[puzzles.size()];
+    for ( int i = 0; i < puzzles.size(); i++ )
+    {   final String puzzle = puzzles.get(i);
+        final int index = i;
+        results.add( workers.submit( new Callable<String>()
+        {   @Override
+            public String call() { return verify(puzzle, nodes, index); }
+        }) );
+    }
+
+    int failed = 0;
+    for ( int i = 0; i < results.size(); i++ )
+    {   String report;
+        try { report = results.get(i).get(); }
+        catch ( ExecutionException e )
+        { report = "FAIL " + e.getCause() + "  " + puzzles.get(i); }
+        if ( report.startsWith("FAIL") ) failed++;
+        System.out.println( report );
+    }
+    workers.shutdown();
+
+    long millis = Math.max( 1, (System.nanoTime() - start) / 1000000L );
+    long totalNodes = 0;
+    for ( long n : nodes ) totalNodes += n;
+    System.out.printf( "%d puzzles, %d verified, %d failed, %d threads, %,d nodes in %d ms, %,d nps%n",
+            puzzles.size(), puzzles.size() - failed, failed, threads, totalNodes, millis,
+            totalNodes * 1000 / millis );
+}
+
+// solves one puzzle line, returns its report line
+private static String verify(String puzzle, long[] nodes, int index)
+{
+    String[] fields = puzzle.split(";");
+    if ( fields.length < 2 )
+        return "FAIL no mate length  " + puzzle;
+    String fen = fields[0].trim();
+    int moves;
+    try { moves = Integer.parseInt( fields[1].trim() ); }
+    catch ( NumberFormatException e )
+    { return "FAIL bad mate length  " + puzzle; }
+    if ( moves < 1 || moves > MateSolver.MAX_MATE_MOVES )
+        return "FAIL bad mate length  " + puzzle;
+    String key = ( fields.length > 2 ) ? fields[2].trim() : "";
+
+    MateResult result;
+    try { result = SOLVERS.get().solveMate(fen, moves); }
+    catch ( IllegalArgumentException e )
+    { return "FAIL bad FEN  " + puzzle; }
+    nodes[index] = result.getNodes();
+
+    if ( result.getMateInMoves() != moves )
+        return "FAIL " + result + ", expected mate in " + moves + "  " + fen;
+    String found = PackedMove.toString( result.getMove() );
+    if ( !key.isEmpty() && !key.equals(found) )
+        return "ok   " + result + ", key " + key + " not found first  " + fen;
+    return "ok   " + result + "  " + fen;
+}
+}
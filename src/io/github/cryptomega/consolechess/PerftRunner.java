@@ -0,0 +1,161 @@
+/*
+ *  Perft runner for the move generator
+ *  Counts the leaf nodes of the standard test positions, times them, and
+ *  checks them against the published counts and against chesspresso's
+ *  Position.getAllMoves(). When the counts differ, the moves of the root
+ *  are divided to show which one goes wrong.
+ *
+ *  usage: PerftRunner [max depth]
+ */
+package io.github.cryptomega.consolechess;
+
+import chesspresso.Chess;
+import chesspresso.move.IllegalMoveException;
+import chesspresso.move.Move;
+import chesspresso.position.Position;
+import io.github.cryptomega.chess.Game;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * @author Philip
+ */
+public class PerftRunner
+{
+    final private static int DEFAULT_MAX_DEPTH = 4;
+    
+    // test positions, with their published perft counts from depth 1
+    final private static String[] FENS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        "r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+    };
+    final private static long[][] COUNTS = {
+        { 20, 400, 8902, 197281, 4865609 },
+        { 48, 2039, 97862, 4085603 },
+        { 14, 191, 2812, 43238, 674624 },
+        { 6, 264, 9467, 422333 },
+        { 6, 264, 9467, 422333 },
+        { 44, 1486, 62379, 2103487 },
+        { 46, 2079, 89890, 3894594 }
+    };
+    
+/**
+ * @param args the command line arguments
+ */
+public static void main(String[] args)
+{
+    int maxDepth = ( args.length > 0 ) ? Integer.parseInt(args[0]) : DEFAULT_MAX_DEPTH;
+    int failures = 0;
+    long totalNodes = 0, totalNanos = 0;
+    
+    for ( int i = 0; i < FENS.length; i++ )
+    {
+        System.out.println( "Position " + (i + 1) + ": " + FENS[i] );
+        Game game = Game.fromFEN( FENS[i] ).startGame();
+        Position position = new Position( FENS[i] );
+        int depthLimit = Math.min( maxDepth, COUNTS[i].length );
+        
+        for ( int depth = 1; depth <= depthLimit; depth++ )
+        {
+            long start = System.nanoTime();
+            long nodes = game.perft(depth);
+            long nanos = System.nanoTime() - start;
+            totalNodes += nodes;
+            totalNanos += nanos;
+            
+            long expected = COUNTS[i][depth - 1];
+            long oracle = perft(position, depth);
+            String result;
+            if ( nodes == expected && nodes == oracle )
+                result = "OK";
+            else if ( nodes == expected )
+                result = "OK (chesspresso counts " + oracle + ")";
+            else
+            {   result = "FAILED, expected " + expected + ", chesspresso " + oracle;
+                failures++;
+            }
+            System.out.printf( "  depth %d %,12d nodes %,12d nps  %s%n",
+                    depth, nodes, getNodesPerSecond(nodes, nanos), result );
+            
+            if ( nodes != expected )
+            {   printDivide( game.divide(depth), divide(position, depth) );
+                break;
+            }
+        }
+    }
+    
+    System.out.printf( "%,d nodes %,d nps, %d failed%n",
+            totalNodes, getNodesPerSecond(totalNodes, totalNanos), failures );
+    if ( failures > 0 ) System.exit(1);
+}
+
+private static long getNodesPerSecond(long nodes, long nanos)
+{ return ( nanos == 0 ) ? 0 : nodes * 1000000000L / nanos; }
+
+// shows the root moves whose counts differ, or that only one side found
+private static void printDivide(Map<String, Long> counts, Map<String, Long> oracle)
+{
+    for ( Map.Entry<String, Long> entry : counts.entrySet() )
+    {
+        Long other = oracle.get( entry.getKey() );
+        if ( !entry.getValue().equals(other) )
+            System.out.println( "    " + entry.getKey() + " " + entry.getValue()
+                    + ", chesspresso " + ( (other == null) ? "illegal" : other ) );
+    }
+    for ( String move : oracle.keySet() )
+        if ( !counts.containsKey(move) )
+            System.out.println( "    " + move + " missing, chesspresso " + oracle.get(move) );
+}
+
+private static long perft(Position position, int depth)
+{
+    short[] moves = position.getAllMoves();
+    if ( depth <= 1 ) return ( depth == 1 ) ? moves.length : 1;
+    long nodes = 0;
+    for ( short move : moves )
+    {   doMove(position, move);
+        nodes += perft(position, depth - 1);
+        position.undoMove();
+    }
+    return nodes;
+}
+
+private static Map<String, Long> divide(Position position, int depth)
+{
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for ( short move : position.getAllMoves() )
+    {   String name = toString(position, move);
+        doMove(position, move);
+        counts.put( name, perft(position, depth - 1) );
+        position.undoMove();
+    }
+    return counts;
+}
+
+private static void doMove(Position position, short move)
+{
+    try { position.doMove(move); }
+    catch ( IllegalMoveException e )
+    { throw new IllegalStateException( "chesspresso rejected its own move " + Move.getString(move), e ); }
+}
+
+// chesspresso move in the coordinate notation of PackedMove.toString()
+private static String toString(Position position, short move)
+{
+    if ( Move.isCastle(move) )
+    {   int kingSquare = ( position.getToPlay() == Chess.WHITE ) ? 4 : 60;
+        int toSquare = Move.isShortCastle(move) ? kingSquare + 2 : kingSquare - 2;
+        return Chess.sqiToStr(kingSquare) + Chess.sqiToStr(toSquare);
+    }
+    String name = Chess.sqiToStr( Move.getFromSqi(move) ) + Chess.sqiToStr( Move.getToSqi(move) );
+    if ( Move.isPromotion(move) )
+        name += Character.toLowerCase( Chess.pieceToChar( Move.getPromotionPiece(move) ) );
+    return name;
+}
+}
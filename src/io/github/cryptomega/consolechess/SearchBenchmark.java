@@ -0,0 +1,80 @@
+/*
+ *  Parallel search benchmark
+ *  Searches test positions to a fixed depth on one thread and then on
+ *  several, and reports the speedup in time to depth and the nodes per
+ *  second of each thread. The table is cleared before every search.
+ *
+ *  usage: SearchBenchmark [threads] [depth] [table MB]
+ */
+package io.github.cryptomega.consolechess;
+
+import io.github.cryptomega.chess.Game;
+import io.github.cryptomega.chess.PackedMove;
+import io.github.cryptomega.chess.engine.ParallelSearch;
+import io.github.cryptomega.chess.engine.TranspositionTable;
+
+/**
+ *
+ * @author Philip
+ */
+public class SearchBenchmark
+{
+    final private static int DEFAULT_DEPTH = 7;
+    final private static long NO_TIME_LIMIT = 24L*60*60*1000;
+    
+    final private static String[] FENS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1"
+    };
+    
+/**
+ * @param args the command line arguments
+ */
+public static void main(String[] args)
+{
+    int threads = ( args.length > 0 ) ? Integer.parseInt(args[0])
+            : Runtime.getRuntime().availableProcessors();
+    int depth = ( args.length > 1 ) ? Integer.parseInt(args[1]) : DEFAULT_DEPTH;
+    int megabytes = ( args.length > 2 ) ? Integer.parseInt(args[2])
+            : TranspositionTable.DEFAULT_MEGABYTES;
+    
+    TranspositionTable table = new TranspositionTable(megabytes);
+    ParallelSearch single = new ParallelSearch(1, table);
+    ParallelSearch parallel = new ParallelSearch(threads, table);
+    long singleMillis = 0, parallelMillis = 0;
+    
+    System.out.println( threads + " threads, depth " + depth + ", " + table.getMegabytes() + " MB" );
+    for ( String fen : FENS )
+    {
+        System.out.println( fen );
+        Game game = Game.fromFEN(fen).startGame();
+        
+        table.clear();
+        int move = single.search(game, NO_TIME_LIMIT, depth);
+        System.out.printf( "  1 thread   %6d ms %,12d nodes %,10d nps  %s%n", single.getMillis(),
+                single.getNodes(), single.getNodesPerSecond(), PackedMove.toString(move) );
+        
+        table.clear();
+        move = parallel.search(game, NO_TIME_LIMIT, depth);
+        System.out.printf( "  %d threads %6d ms %,12d nodes %,10d nps  %s  speedup %.2f%n", threads,
+                parallel.getMillis(), parallel.getNodes(), parallel.getNodesPerSecond(),
+                PackedMove.toString(move), getSpeedup(single.getMillis(), parallel.getMillis()) );
+        StringBuilder sb = new StringBuilder("  nps per thread:");
+        for ( int i = 0; i < threads; i++ )
+            sb.append( String.format(" %,d", parallel.getNodesPerSecond(i)) );
+        System.out.println( sb );
+        
+        singleMillis += single.getMillis();
+        parallelMillis += parallel.getMillis();
+    }
+    System.out.printf( "total %d ms on 1 thread, %d ms on %d, speedup %.2f%n",
+            singleMillis, parallelMillis, threads, getSpeedup(singleMillis, parallelMillis) );
+    parallel.shutdown();
+    single.shutdown();
+}
+
+private static double getSpeedup(long singleMillis, long parallelMillis)
+{ return (double)singleMillis / Math.max(1, parallelMillis); }
+}